@@ -2,7 +2,9 @@ package com.gmail.nossr50.api;
 
 import org.bukkit.entity.Player;
 
+import com.gmail.nossr50.database.OfflineProfileBuffer.ProfileChange;
 import com.gmail.nossr50.datatypes.player.McMMOPlayer;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.datatypes.skills.AbilityType;
 import com.gmail.nossr50.util.player.UserManager;
 
@@ -50,34 +52,48 @@ public final class AbilityAPI {
     }
 
     public static void resetCooldowns(Player player) {
-        UserManager.getPlayer(player).getProfile().resetCooldowns();
+        UserManager.getPlayer(player).changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.resetCooldowns();
+            }
+        });
     }
 
     public static void setBerserkCooldown(Player player, long cooldown) {
-        UserManager.getPlayer(player).getProfile().setSkillDATS(AbilityType.BERSERK, cooldown);
+        setCooldown(player, AbilityType.BERSERK, cooldown);
     }
 
     public static void setGigaDrillBreakerCooldown(Player player, long cooldown) {
-        UserManager.getPlayer(player).getProfile().setSkillDATS(AbilityType.GIGA_DRILL_BREAKER, cooldown);
+        setCooldown(player, AbilityType.GIGA_DRILL_BREAKER, cooldown);
     }
 
     public static void setGreenTerraCooldown(Player player, long cooldown) {
-        UserManager.getPlayer(player).getProfile().setSkillDATS(AbilityType.GREEN_TERRA, cooldown);
+        setCooldown(player, AbilityType.GREEN_TERRA, cooldown);
     }
 
     public static void setSerratedStrikesCooldown(Player player, long cooldown) {
-        UserManager.getPlayer(player).getProfile().setSkillDATS(AbilityType.SERRATED_STRIKES, cooldown);
+        setCooldown(player, AbilityType.SERRATED_STRIKES, cooldown);
     }
 
     public static void setSkullSplitterCooldown(Player player, long cooldown) {
-        UserManager.getPlayer(player).getProfile().setSkillDATS(AbilityType.SKULL_SPLITTER, cooldown);
+        setCooldown(player, AbilityType.SKULL_SPLITTER, cooldown);
     }
 
     public static void setSuperBreakerCooldown(Player player, long cooldown) {
-        UserManager.getPlayer(player).getProfile().setSkillDATS(AbilityType.SUPER_BREAKER, cooldown);
+        setCooldown(player, AbilityType.SUPER_BREAKER, cooldown);
     }
 
     public static void setTreeFellerCooldown(Player player, long cooldown) {
-        UserManager.getPlayer(player).getProfile().setSkillDATS(AbilityType.TREE_FELLER, cooldown);
+        setCooldown(player, AbilityType.TREE_FELLER, cooldown);
+    }
+
+    private static void setCooldown(Player player, final AbilityType ability, final long cooldown) {
+        UserManager.getPlayer(player).changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.setSkillDATS(ability, cooldown);
+            }
+        });
     }
 }
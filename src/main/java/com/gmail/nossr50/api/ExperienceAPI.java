@@ -9,6 +9,7 @@ import com.gmail.nossr50.api.exceptions.InvalidPlayerException;
 import com.gmail.nossr50.api.exceptions.InvalidSkillException;
 import com.gmail.nossr50.config.Config;
 import com.gmail.nossr50.config.experience.ExperienceConfig;
+import com.gmail.nossr50.database.OfflineProfileBuffer.ProfileChange;
 import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.datatypes.skills.SkillType;
 import com.gmail.nossr50.skills.child.FamilyTree;
@@ -322,8 +323,15 @@ public final class ExperienceAPI {
      *
      * @throws InvalidSkillException if the given skill is not valid
      */
-    public static void addLevel(Player player, String skillType, int levels) {
-        UserManager.getPlayer(player).getProfile().addLevels(getSkillType(skillType), levels);
+    public static void addLevel(Player player, String skillType, final int levels) {
+        final SkillType skill = getSkillType(skillType);
+
+        UserManager.getPlayer(player).changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.addLevels(skill, levels);
+            }
+        });
     }
 
     /**
@@ -338,23 +346,25 @@ public final class ExperienceAPI {
      * @throws InvalidSkillException if the given skill is not valid
      * @throws InvalidPlayerException if the given player does not exist in the database
      */
-    public static void addLevelOffline(String playerName, String skillType, int levels) {
-        PlayerProfile profile = getOfflineProfile(playerName);
-        SkillType skill = getSkillType(skillType);
+    public static void addLevelOffline(String playerName, String skillType, final int levels) {
+        final SkillType skill = getSkillType(skillType);
 
-        if (skill.isChildSkill()) {
-            Set<SkillType> parentSkills = FamilyTree.getParents(skill);
+        changeOfflineProfile(playerName, new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                if (skill.isChildSkill()) {
+                    Set<SkillType> parentSkills = FamilyTree.getParents(skill);
 
-            for (SkillType parentSkill : parentSkills) {
-                profile.addLevels(parentSkill, (levels / parentSkills.size()));
-            }
+                    for (SkillType parentSkill : parentSkills) {
+                        profile.addLevels(parentSkill, (levels / parentSkills.size()));
+                    }
 
-            profile.save();
-            return;
-        }
+                    return;
+                }
 
-        profile.addLevels(skill, levels);
-        profile.save();
+                profile.addLevels(skill, levels);
+            }
+        });
     }
 
     /**
@@ -491,8 +501,15 @@ public final class ExperienceAPI {
      *
      * @throws InvalidSkillException if the given skill is not valid
      */
-    public static void setLevel(Player player, String skillType, int skillLevel) {
-        UserManager.getPlayer(player).getProfile().modifySkill(getSkillType(skillType), skillLevel);
+    public static void setLevel(Player player, String skillType, final int skillLevel) {
+        final SkillType skill = getSkillType(skillType);
+
+        UserManager.getPlayer(player).changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.modifySkill(skill, skillLevel);
+            }
+        });
     }
 
     /**
@@ -507,8 +524,15 @@ public final class ExperienceAPI {
      * @throws InvalidSkillException if the given skill is not valid
      * @throws InvalidPlayerException if the given player does not exist in the database
      */
-    public static void setLevelOffline(String playerName, String skillType, int skillLevel) {
-        getOfflineProfile(playerName).modifySkill(getSkillType(skillType), skillLevel);
+    public static void setLevelOffline(String playerName, String skillType, final int skillLevel) {
+        final SkillType skill = getSkillType(skillType);
+
+        changeOfflineProfile(playerName, new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.modifySkill(skill, skillLevel);
+            }
+        });
     }
 
     /**
@@ -523,8 +547,15 @@ public final class ExperienceAPI {
      * @throws InvalidSkillException if the given skill is not valid
      * @throws UnsupportedOperationException if the given skill is a child skill
      */
-    public static void setXP(Player player, String skillType, int newValue) {
-        UserManager.getPlayer(player).getProfile().setSkillXpLevel(getNonChildSkillType(skillType), newValue);
+    public static void setXP(Player player, String skillType, final int newValue) {
+        final SkillType skill = getNonChildSkillType(skillType);
+
+        UserManager.getPlayer(player).changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.setSkillXpLevel(skill, newValue);
+            }
+        });
     }
 
     /**
@@ -540,8 +571,15 @@ public final class ExperienceAPI {
      * @throws InvalidPlayerException if the given player does not exist in the database
      * @throws UnsupportedOperationException if the given skill is a child skill
      */
-    public static void setXPOffline(String playerName, String skillType, int newValue) {
-        getOfflineProfile(playerName).setSkillXpLevel(getNonChildSkillType(skillType), newValue);
+    public static void setXPOffline(String playerName, String skillType, final int newValue) {
+        final SkillType skill = getNonChildSkillType(skillType);
+
+        changeOfflineProfile(playerName, new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.setSkillXpLevel(skill, newValue);
+            }
+        });
     }
 
     /**
@@ -556,8 +594,15 @@ public final class ExperienceAPI {
      * @throws InvalidSkillException if the given skill is not valid
      * @throws UnsupportedOperationException if the given skill is a child skill
      */
-    public static void removeXP(Player player, String skillType, int xp) {
-        UserManager.getPlayer(player).getProfile().removeXp(getNonChildSkillType(skillType), xp);
+    public static void removeXP(Player player, String skillType, final int xp) {
+        final SkillType skill = getNonChildSkillType(skillType);
+
+        UserManager.getPlayer(player).changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.removeXp(skill, xp);
+            }
+        });
     }
 
     /**
@@ -573,32 +618,51 @@ public final class ExperienceAPI {
      * @throws InvalidPlayerException if the given player does not exist in the database
      * @throws UnsupportedOperationException if the given skill is a child skill
      */
-    public static void removeXPOffline(String playerName, String skillType, int xp) {
-        getOfflineProfile(playerName).removeXp(getNonChildSkillType(skillType), xp);
+    public static void removeXPOffline(String playerName, String skillType, final int xp) {
+        final SkillType skill = getNonChildSkillType(skillType);
+
+        changeOfflineProfile(playerName, new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.removeXp(skill, xp);
+            }
+        });
+    }
+
+    /**
+     * Save every change made to offline players so far.
+     * </br>
+     * Changes to offline players are kept in memory and saved together
+     * every few seconds. This function is designed for API usage, when they
+     * need to be saved right away.
+     */
+    public static void flush() {
+        mcMMO.getOfflineProfileBuffer().flush();
     }
 
     // Utility methods follow.
 
-    private static void addOfflineXP(String playerName, SkillType skill, int XP) {
-        PlayerProfile profile = getOfflineProfile(playerName);
+    private static void addOfflineXP(String playerName, final SkillType skill, final int XP) {
+        changeOfflineProfile(playerName, new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                if (skill.isChildSkill()) {
+                    Set<SkillType> parentSkills = FamilyTree.getParents(skill);
 
-        if (skill.isChildSkill()) {
-            Set<SkillType> parentSkills = FamilyTree.getParents(skill);
+                    for (SkillType parentSkill : parentSkills) {
+                        profile.setSkillXpLevel(parentSkill, profile.getSkillLevel(parentSkill) + (XP / parentSkills.size()));
+                    }
 
-            for (SkillType parentSkill : parentSkills) {
-                profile.setSkillXpLevel(parentSkill, profile.getSkillLevel(parentSkill) + (XP / parentSkills.size()));
-            }
-
-            profile.save();
-            return;
-        }
+                    return;
+                }
 
-        profile.setSkillXpLevel(skill, profile.getSkillXpLevel(skill) + XP);
-        profile.save();
+                profile.setSkillXpLevel(skill, profile.getSkillXpLevel(skill) + XP);
+            }
+        });
     }
 
     private static PlayerProfile getOfflineProfile(String playerName) {
-        PlayerProfile profile = mcMMO.getDatabaseManager().loadPlayerProfile(playerName, false);
+        PlayerProfile profile = mcMMO.getOfflineProfileBuffer().getProfile(playerName);
 
         if (!profile.isLoaded()) {
             throw new InvalidPlayerException();
@@ -607,6 +671,12 @@ public final class ExperienceAPI {
         return profile;
     }
 
+    private static void changeOfflineProfile(String playerName, ProfileChange change) {
+        if (!mcMMO.getOfflineProfileBuffer().change(playerName, change).isLoaded()) {
+            throw new InvalidPlayerException();
+        }
+    }
+
     private static SkillType getSkillType(String skillType) throws InvalidSkillException {
         SkillType skill = SkillType.getSkill(skillType);
 
@@ -2,6 +2,8 @@ package com.gmail.nossr50.commands;
 
 import org.bukkit.command.CommandSender;
 
+import com.gmail.nossr50.database.OfflineProfileBuffer.ProfileChange;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.util.Permissions;
 
@@ -19,7 +21,12 @@ public class McrefreshCommand extends ToggleCommand {
     @Override
     protected void applyCommandAction() {
         mcMMOPlayer.setRecentlyHurt(0);
-        mcMMOPlayer.getProfile().resetCooldowns();
+        mcMMOPlayer.changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.resetCooldowns();
+            }
+        });
         mcMMOPlayer.resetToolPrepMode();
         mcMMOPlayer.resetAbilityMode();
 
@@ -52,6 +52,13 @@ public class ConvertDatabaseCommand implements CommandExecutor {
                 sender.sendMessage(LocaleLoader.getString("Commands.mcconvert.Database.Start", previousType.toString(), newType.toString()));
 
                 UserManager.saveAll();
+
+                // Converting before every save is written would convert old data
+                if (!mcMMO.getProfileSaveQueue().flush()) {
+                    sender.sendMessage(LocaleLoader.getString("Commands.mcconvert.NotSaved"));
+                    return true;
+                }
+
                 UserManager.clearAll();
 
                 for (Player player : mcMMO.p.getServer().getOnlinePlayers()) {
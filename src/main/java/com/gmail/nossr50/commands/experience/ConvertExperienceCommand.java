@@ -32,6 +32,13 @@ public class ConvertExperienceCommand implements CommandExecutor {
                 sender.sendMessage(LocaleLoader.getString("Commands.mcconvert.Experience.Start", previousType.toString(), newType.toString()));
 
                 UserManager.saveAll();
+
+                // Converting before every save is written would convert old data
+                if (!mcMMO.getProfileSaveQueue().flush()) {
+                    sender.sendMessage(LocaleLoader.getString("Commands.mcconvert.NotSaved"));
+                    return true;
+                }
+
                 UserManager.clearAll();
 
                 new FormulaConversionTask(sender, newType).runTaskLater(mcMMO.p, 1);
@@ -5,6 +5,8 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
 import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.database.OfflineProfileBuffer.ProfileChange;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.datatypes.skills.SkillType;
 import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.util.EventUtils;
@@ -43,6 +45,10 @@ public class SkillresetCommand extends ExperienceCommand {
                 mcMMOPlayer = UserManager.getPlayer(player);
                 profile = mcMMOPlayer.getProfile();
 
+                if (CommandUtils.loadingProfile(sender, profile)) {
+                    return true;
+                }
+
                 editValues();
                 return true;
 
@@ -61,19 +67,27 @@ public class SkillresetCommand extends ExperienceCommand {
 
                 // If the mcMMOPlayer doesn't exist, create a temporary profile and check if it's present in the database. If it's not, abort the process.
                 if (mcMMOPlayer == null) {
-                    profile = mcMMO.getDatabaseManager().loadPlayerProfile(playerName, false);
-
-                    if (CommandUtils.unloadedProfile(sender, profile)) {
+                    // Changed in the offline buffer, so it can't be lost to a flush or overwritten by an API change
+                    PlayerProfile offlineProfile = mcMMO.getOfflineProfileBuffer().change(playerName, new ProfileChange() {
+                        @Override
+                        public void apply(PlayerProfile bufferedProfile) {
+                            profile = bufferedProfile;
+                            editValues();
+                        }
+                    });
+
+                    if (CommandUtils.unloadedProfile(sender, offlineProfile)) {
                         return true;
                     }
-
-                    editValues();
-                    profile.save(); // Since this is a temporary profile, we save it here.
                 }
                 else {
                     profile = mcMMOPlayer.getProfile();
                     player = mcMMOPlayer.getPlayer();
 
+                    if (CommandUtils.loadingProfile(sender, profile)) {
+                        return true;
+                    }
+
                     editValues();
                 }
 
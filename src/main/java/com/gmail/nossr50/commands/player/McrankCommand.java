@@ -62,7 +62,7 @@ public class McrankCommand implements TabExecutor {
                         return true;
                     }
                 }
-                else if (CommandUtils.inspectOffline(sender, mcMMO.getDatabaseManager().loadPlayerProfile(playerName, false), Permissions.mcrankOffline(sender))) {
+                else if (CommandUtils.inspectOffline(sender, mcMMO.getProfileCache().loadPlayerProfile(playerName), Permissions.mcrankOffline(sender))) {
                     return true;
                 }
 
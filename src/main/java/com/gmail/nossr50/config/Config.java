@@ -74,6 +74,24 @@ public class Config extends AutoUpdateConfigLoader {
             reason.add("Database_Purging.Old_User_Cutoff should be greater than 0 or -1!");
         }
 
+        /* Flatfile */
+        if (!getFlatfileFormat().equalsIgnoreCase("TEXT") && !getFlatfileFormat().equalsIgnoreCase("BINARY") && !getFlatfileFormat().equalsIgnoreCase("SQLITE")) {
+            reason.add("Flatfile.Format should be either TEXT, BINARY or SQLITE!");
+        }
+
+        if (getFlatfileShards() <= 0) {
+            reason.add("Flatfile.Shards should be greater than 0!");
+        }
+
+        if (getFlatfileJournalCompactInterval() <= 0) {
+            reason.add("Flatfile.Journal.Compact_Interval should be greater than 0!");
+        }
+
+        /* MySQL */
+        if (getMySQLMaxConnections() <= 0) {
+            reason.add("MySQL.Database.Max_Connections should be greater than 0!");
+        }
+
         /* Hardcore Mode */
         if (getHardcoreDeathStatPenaltyPercentage() < 0.01 || getHardcoreDeathStatPenaltyPercentage() > 100) {
             reason.add("Hardcore.Death_Stat_Loss.Penalty_Percentage only accepts values from 0.01 to 100!");
@@ -233,6 +251,15 @@ public class Config extends AutoUpdateConfigLoader {
     public int getPurgeInterval() { return config.getInt("Database_Purging.Purge_Interval", -1); }
     public int getOldUsersCutoff() { return config.getInt("Database_Purging.Old_User_Cutoff", 6); }
 
+    /* Flatfile */
+    public String getFlatfileFormat() { return config.getString("Flatfile.Format", "TEXT"); }
+    public boolean getFlatfileBinaryFormat() { return getFlatfileFormat().equalsIgnoreCase("BINARY"); }
+    public boolean getFlatfileSQLiteFormat() { return getFlatfileFormat().equalsIgnoreCase("SQLITE"); }
+    public boolean getFlatfileBinaryReimportDamaged() { return config.getBoolean("Flatfile.Binary.Reimport_Damaged", false); }
+    public int getFlatfileShards() { return config.getInt("Flatfile.Shards", 1); }
+    public boolean getFlatfileJournalEnabled() { return config.getBoolean("Flatfile.Journal.Enabled", false); }
+    public int getFlatfileJournalCompactInterval() { return config.getInt("Flatfile.Journal.Compact_Interval", 30); }
+
     /* mySQL */
     public boolean getUseMySQL() { return config.getBoolean("MySQL.Enabled", false); }
     public String getMySQLTablePrefix() { return config.getString("MySQL.Database.TablePrefix", "mcmmo_"); }
@@ -241,6 +268,7 @@ public class Config extends AutoUpdateConfigLoader {
     public int getMySQLServerPort() { return config.getInt("MySQL.Server.Port", 3306); }
     public String getMySQLServerName() { return config.getString("MySQL.Server.Address", "localhost"); }
     public String getMySQLUserPassword() { return getStringIncludingInts("MySQL.Database.User_Password"); }
+    public int getMySQLMaxConnections() { return config.getInt("MySQL.Database.Max_Connections", 10); }
 
     private String getStringIncludingInts(String key) {
         String str = config.getString(key);
@@ -12,6 +12,7 @@ public class HiddenConfig {
     private static int conversionRate;
     private static boolean useEnchantmentBuffs;
     private static boolean resendChunksAfterBlockAbility;
+    private static int chunkletCompressionLevel;
 
     public HiddenConfig(String fileName) {
         HiddenConfig.fileName = fileName;
@@ -33,6 +34,7 @@ public class HiddenConfig {
             conversionRate = config.getInt("Options.ConversionRate", 1);
             useEnchantmentBuffs = config.getBoolean("Options.EnchantmentBuffs", true);
             resendChunksAfterBlockAbility = config.getBoolean("Options.RefreshChunks", false);
+            chunkletCompressionLevel = config.getInt("Options.ChunkletCompressionLevel", 6);
         }
     }
 
@@ -51,4 +53,8 @@ public class HiddenConfig {
     public boolean resendChunksAfterBlockAbility() {
         return resendChunksAfterBlockAbility;
     }
+
+    public int getChunkletCompressionLevel() {
+        return chunkletCompressionLevel;
+    }
 }
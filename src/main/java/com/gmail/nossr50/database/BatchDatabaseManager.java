@@ -0,0 +1,27 @@
+package com.gmail.nossr50.database;
+
+import java.util.Collection;
+
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
+
+/**
+ * A DatabaseManager that can save many users at once.
+ * <p/>
+ * Kept apart from {@link DatabaseManager} so that custom managers written
+ * before it keep working. Use {@link DatabaseManagerFactory#saveUsers} to
+ * save a batch to any DatabaseManager, it falls back on saving the users
+ * one by one.
+ */
+public interface BatchDatabaseManager extends DatabaseManager {
+    // During convertUsers and purges, how many users to handle at once
+    public final int conversionBatchSize = 1000;
+
+    /**
+     * Save several users to the database at once. May be called from any
+     * thread, the snapshots are never changed while they are written.
+     *
+     * @param snapshots Snapshots of the profiles of the players to save
+     * @return true if every profile was saved, false on failure
+     */
+    public boolean saveUsers(Collection<ProfileSnapshot> snapshots);
+}
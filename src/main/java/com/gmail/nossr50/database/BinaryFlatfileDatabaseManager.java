@@ -0,0 +1,839 @@
+package com.gmail.nossr50.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.OfflinePlayer;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.datatypes.MobHealthbarType;
+import com.gmail.nossr50.datatypes.database.DatabaseType;
+import com.gmail.nossr50.datatypes.database.PlayerStat;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
+import com.gmail.nossr50.datatypes.skills.AbilityType;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+import com.gmail.nossr50.util.Misc;
+
+/**
+ * Flatfile database stored in a versioned, column oriented binary file.
+ * <p/>
+ * The file starts with a header describing its columns, followed by every
+ * column laid out as one contiguous block of fixed-width cells with room for
+ * {@code capacity} players. The whole table is read into primitive arrays
+ * with a few bulk reads on startup; saves then overwrite the cells of a
+ * single player in place. Only growing the table or removing players
+ * rewrites the file.
+ * <p/>
+ * The first time this database is used, all players are imported from
+ * mcmmo.users, which is only read and is left as a backup. Converting back is done with
+ * {@code /mcconvert database binary} while using the text flatfile database.
+ */
+public final class BinaryFlatfileDatabaseManager implements BatchDatabaseManager {
+    private final FlatfileLeaderboards leaderboards = new FlatfileLeaderboards();
+    private final File usersFile;
+    private static final Object fileWritingLock = new Object();
+
+    private static final int MAGIC = 0x6D634D4D; // "mcMM"
+    private static final int VERSION = 1;
+    private static final int ROW_COUNT_OFFSET = 12;
+    private static final int INITIAL_CAPACITY = 256;
+    // One length byte followed by the UTF-8 bytes of the name
+    private static final int NAME_WIDTH = 48;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    // Last login field of mcmmo.users
+    private static final int LAST_LOGIN_FIELD = 37;
+
+    // Names of the 4 byte columns, in file order. The name and last login columns always come first.
+    private static final List<String> INT_COLUMNS = new ArrayList<String>();
+    private static final int HEALTHBAR_COLUMN;
+    private static final Map<SkillType, Integer> LEVEL_COLUMNS = new HashMap<SkillType, Integer>();
+    private static final Map<SkillType, Integer> XP_COLUMNS = new HashMap<SkillType, Integer>();
+    private static final Map<AbilityType, Integer> DATS_COLUMNS = new HashMap<AbilityType, Integer>();
+
+    static {
+        HEALTHBAR_COLUMN = addColumn("healthbar");
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            LEVEL_COLUMNS.put(skill, addColumn("level." + skill.name()));
+        }
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            XP_COLUMNS.put(skill, addColumn("xp." + skill.name()));
+        }
+
+        for (AbilityType ability : AbilityType.values()) {
+            DATS_COLUMNS.put(ability, addColumn("dats." + ability.name()));
+        }
+    }
+
+    // In-memory copy of the table
+    private final Map<String, Integer> rowIndex = new HashMap<String, Integer>();
+    private String[] names = new String[0];
+    private long[] lastLogin = new long[0];
+    private int[][] columns = new int[INT_COLUMNS.size()][0];
+    private int rowCount = 0;
+    private int capacity = 0;
+    private final int headerLength = getHeaderLength();
+
+    // Set while importing from mcmmo.users, so that the file is only written once at the end
+    private boolean importing = false;
+
+    protected BinaryFlatfileDatabaseManager() {
+        usersFile = new File(mcMMO.getFlatFileDirectory(), "mcmmo.users.bin");
+
+        synchronized (fileWritingLock) {
+            if (usersFile.exists()) {
+                readTable();
+            }
+            else {
+                importTextDatabase();
+            }
+
+            buildLeaderboards();
+        }
+    }
+
+    public void purgePowerlessUsers() {
+        int purgedUsers = 0;
+
+        mcMMO.p.getLogger().info("Purging powerless users...");
+
+        synchronized (fileWritingLock) {
+            for (int row = rowCount - 1; row >= 0; row--) {
+                boolean powerless = true;
+                for (int column : LEVEL_COLUMNS.values()) {
+                    if (columns[column][row] != 0) {
+                        powerless = false;
+                        break;
+                    }
+                }
+
+                if (powerless) {
+                    Misc.profileCleanup(names[row]);
+                    deleteRow(row);
+                    purgedUsers++;
+                }
+            }
+
+            if (purgedUsers > 0) {
+                writeTable();
+            }
+        }
+
+        mcMMO.p.getLogger().info("Purged " + purgedUsers + " users from the database.");
+    }
+
+    public void purgeOldUsers() {
+        int removedPlayers = 0;
+        long currentTime = System.currentTimeMillis();
+        boolean rewrite = false;
+
+        mcMMO.p.getLogger().info("Purging old users...");
+
+        // Look up every missing last login at once instead of asking the server player by player
+        Map<String, Long> missingLastLogins = readMissingLastLogins();
+
+        synchronized (fileWritingLock) {
+            for (int row = rowCount - 1; row >= 0; row--) {
+                long lastPlayed = lastLogin[row] * Misc.TIME_CONVERSION_FACTOR;
+
+                if (lastPlayed == 0) {
+                    Long found = missingLastLogins.get(names[row].toLowerCase());
+                    lastPlayed = found == null ? 0 : found;
+                    lastLogin[row] = lastPlayed / Misc.TIME_CONVERSION_FACTOR;
+                    rewrite = true;
+                }
+
+                if (currentTime - lastPlayed > PURGE_TIME) {
+                    Misc.profileCleanup(names[row]);
+                    deleteRow(row);
+                    removedPlayers++;
+                }
+            }
+
+            if (removedPlayers > 0 || rewrite) {
+                writeTable();
+            }
+        }
+
+        mcMMO.p.getLogger().info("Purged " + removedPlayers + " users from the database.");
+    }
+
+    /**
+     * Get the last logins the server knows of for every player who has none
+     * recorded, with a single pass over the server's offline players.
+     *
+     * @return the last logins in milliseconds, keyed by lowercase player name
+     */
+    private Map<String, Long> readMissingLastLogins() {
+        Map<String, Long> lastPlayed = new HashMap<String, Long>();
+
+        synchronized (fileWritingLock) {
+            for (int row = 0; row < rowCount; row++) {
+                if (lastLogin[row] == 0) {
+                    lastPlayed.put(names[row].toLowerCase(), 0L);
+                }
+            }
+        }
+
+        if (lastPlayed.isEmpty()) {
+            return lastPlayed;
+        }
+
+        for (OfflinePlayer player : mcMMO.p.getServer().getOfflinePlayers()) {
+            String key = player.getName().toLowerCase();
+
+            if (lastPlayed.containsKey(key)) {
+                lastPlayed.put(key, player.getLastPlayed());
+            }
+        }
+
+        return lastPlayed;
+    }
+
+    public boolean removeUser(String playerName) {
+        boolean worked = false;
+
+        synchronized (fileWritingLock) {
+            Integer row = rowIndex.get(playerName.toLowerCase());
+
+            if (row != null) {
+                mcMMO.p.getLogger().info("User found, removing...");
+                deleteRow(row);
+                writeTable();
+                worked = true;
+            }
+        }
+
+        Misc.profileCleanup(playerName);
+
+        return worked;
+    }
+
+    public boolean saveUser(PlayerProfile profile) {
+        return saveUser(profile.getSnapshot());
+    }
+
+    public boolean saveUsers(Collection<ProfileSnapshot> profiles) {
+        boolean success = true;
+
+        // Rows are written in place, so there is nothing to gain beyond holding the lock once
+        synchronized (fileWritingLock) {
+            for (ProfileSnapshot profile : profiles) {
+                success &= saveUser(profile);
+            }
+        }
+
+        return success;
+    }
+
+    private boolean saveUser(ProfileSnapshot profile) {
+        String playerName = profile.getPlayerName();
+
+        synchronized (fileWritingLock) {
+            Integer row = rowIndex.get(playerName.toLowerCase());
+            boolean append = row == null;
+
+            if (append) {
+                if (!isValidName(playerName)) {
+                    return false;
+                }
+
+                row = addRow(playerName);
+            }
+
+            lastLogin[row] = System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR;
+            columns[HEALTHBAR_COLUMN][row] = profile.getMobHealthbarType() == null ? Config.getInstance().getMobHealthbarDefault().ordinal() : profile.getMobHealthbarType().ordinal();
+
+            for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+                columns[LEVEL_COLUMNS.get(skill)][row] = profile.getSkillLevel(skill);
+                columns[XP_COLUMNS.get(skill)][row] = Float.floatToIntBits(profile.getSkillXpLevelRaw(skill));
+            }
+
+            for (AbilityType ability : AbilityType.values()) {
+                columns[DATS_COLUMNS.get(ability)][row] = (int) profile.getSkillDATS(ability);
+            }
+
+            if (!writeRow(row, append)) {
+                return false;
+            }
+
+            leaderboards.update(profile);
+            return true;
+        }
+    }
+
+    public List<PlayerStat> readLeaderboard(String skillName, int pageNumber, int statsPerPage) {
+        return leaderboards.readLeaderboard(skillName, pageNumber, statsPerPage);
+    }
+
+    public Map<String, Integer> readRank(String playerName) {
+        return leaderboards.readRank(playerName);
+    }
+
+    public void newUser(String playerName) {
+        synchronized (fileWritingLock) {
+            if (rowIndex.containsKey(playerName.toLowerCase()) || !isValidName(playerName)) {
+                return;
+            }
+
+            int row = addRow(playerName);
+
+            lastLogin[row] = System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR;
+            columns[HEALTHBAR_COLUMN][row] = Config.getInstance().getMobHealthbarDefault().ordinal();
+
+            writeRow(row, true);
+            leaderboards.update(playerName, new int[SkillType.NON_CHILD_SKILLS.size()]);
+        }
+    }
+
+    public PlayerProfile loadPlayerProfile(String playerName, boolean create) {
+        synchronized (fileWritingLock) {
+            Integer row = rowIndex.get(playerName.toLowerCase());
+
+            if (row != null) {
+                return loadFromRow(row);
+            }
+        }
+
+        // Didn't find the player, create a new one
+        if (create) {
+            newUser(playerName);
+            return new PlayerProfile(playerName, true);
+        }
+
+        // Return unloaded profile
+        return new PlayerProfile(playerName);
+    }
+
+    public void convertUsers(DatabaseManager destination) {
+        int convertedUsers = 0;
+        int failedUsers = 0;
+        long startMillis = System.currentTimeMillis();
+        // Copy the profiles out a batch at a time, so the lock isn't held while the other database does its work
+        while (true) {
+            List<ProfileSnapshot> snapshots = new ArrayList<ProfileSnapshot>(conversionBatchSize);
+
+            synchronized (fileWritingLock) {
+                for (int row = convertedUsers; row < rowCount && snapshots.size() < conversionBatchSize; row++) {
+                    snapshots.add(loadFromRow(row).getSnapshot());
+                }
+            }
+
+            if (snapshots.isEmpty()) {
+                break;
+            }
+
+            failedUsers += DatabaseManagerFactory.saveConvertedUsers(destination, snapshots);
+
+            for (int i = 0; i < snapshots.size(); i++) {
+                convertedUsers++;
+                Misc.printProgress(convertedUsers, progressInterval, startMillis);
+            }
+        }
+
+        if (failedUsers > 0) {
+            mcMMO.p.getLogger().severe(failedUsers + " of " + convertedUsers + " users could not be converted.");
+        }
+    }
+
+    public List<String> getStoredUsers() {
+        synchronized (fileWritingLock) {
+            return new ArrayList<String>(Arrays.asList(names).subList(0, rowCount));
+        }
+    }
+
+    public DatabaseType getDatabaseType() {
+        return DatabaseType.BINARY;
+    }
+
+    /**
+     * Fill the leader boards from the level columns. From then on they are
+     * kept up to date by saves and removals.
+     * <p/>
+     * Must be called while holding the file writing lock.
+     */
+    private void buildLeaderboards() {
+        int[] levels = new int[SkillType.NON_CHILD_SKILLS.size()];
+
+        for (int row = 0; row < rowCount; row++) {
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = columns[LEVEL_COLUMNS.get(SkillType.NON_CHILD_SKILLS.get(i))][row];
+            }
+
+            leaderboards.update(names[row], levels);
+        }
+    }
+
+    private PlayerProfile loadFromRow(int row) {
+        Map<SkillType, Integer>   skills     = new HashMap<SkillType, Integer>();   // Skill levels
+        Map<SkillType, Float>     skillsXp   = new HashMap<SkillType, Float>();     // Skill & XP
+        Map<AbilityType, Integer> skillsDATS = new HashMap<AbilityType, Integer>(); // Ability & Cooldown
+        MobHealthbarType mobHealthbarType;
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skills.put(skill, columns[LEVEL_COLUMNS.get(skill)][row]);
+            skillsXp.put(skill, Float.intBitsToFloat(columns[XP_COLUMNS.get(skill)][row]));
+        }
+
+        for (AbilityType ability : AbilityType.values()) {
+            skillsDATS.put(ability, columns[DATS_COLUMNS.get(ability)][row]);
+        }
+
+        try {
+            mobHealthbarType = MobHealthbarType.values()[columns[HEALTHBAR_COLUMN][row]];
+        }
+        catch (Exception e) {
+            mobHealthbarType = Config.getInstance().getMobHealthbarDefault();
+        }
+
+        return new PlayerProfile(names[row], skills, skillsXp, skillsDATS, mobHealthbarType);
+    }
+
+    private boolean isValidName(String playerName) {
+        if (playerName.getBytes(CHARSET).length < NAME_WIDTH) {
+            return true;
+        }
+
+        mcMMO.p.getLogger().warning("Player name " + playerName + " is too long to be stored in " + usersFile.getName());
+        return false;
+    }
+
+    /**
+     * Add an empty row to the in-memory table, growing it if needed.
+     * <p/>
+     * Must be called while holding the file writing lock.
+     *
+     * @return the index of the new row
+     */
+    private int addRow(String playerName) {
+        if (rowCount == capacity) {
+            setCapacity(Math.max(INITIAL_CAPACITY, capacity * 2));
+        }
+
+        int row = rowCount++;
+
+        names[row] = playerName;
+        rowIndex.put(playerName.toLowerCase(), row);
+        return row;
+    }
+
+    /**
+     * Remove a row from the in-memory table by moving the last row into its place.
+     * <p/>
+     * Must be called while holding the file writing lock.
+     */
+    private void deleteRow(int row) {
+        int last = --rowCount;
+
+        rowIndex.remove(names[row].toLowerCase());
+        leaderboards.remove(names[row]);
+
+        if (row != last) {
+            names[row] = names[last];
+            lastLogin[row] = lastLogin[last];
+
+            for (int[] column : columns) {
+                column[row] = column[last];
+            }
+
+            rowIndex.put(names[row].toLowerCase(), row);
+        }
+
+        names[last] = null;
+        lastLogin[last] = 0;
+
+        for (int[] column : columns) {
+            column[last] = 0;
+        }
+    }
+
+    private void setCapacity(int newCapacity) {
+        capacity = newCapacity;
+        names = Arrays.copyOf(names, newCapacity);
+        lastLogin = Arrays.copyOf(lastLogin, newCapacity);
+
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Arrays.copyOf(columns[i], newCapacity);
+        }
+    }
+
+    /**
+     * Write the cells of a single row in place. Rewrites the whole file
+     * instead if the table outgrew the file.
+     * <p/>
+     * Must be called while holding the file writing lock.
+     */
+    private boolean writeRow(int row, boolean append) {
+        if (importing) {
+            return true;
+        }
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(usersFile, "rw");
+
+            // The file only has room for the old capacity, write it all out again
+            if (file.length() < getFileLength()) {
+                tryClose(file);
+                file = null;
+                return writeTable();
+            }
+
+            FileChannel channel = file.getChannel();
+            ByteBuffer cell = ByteBuffer.allocate(NAME_WIDTH);
+
+            if (append) {
+                putName(cell, names[row]);
+                cell.flip();
+                channel.write(cell, headerLength + (long) row * NAME_WIDTH);
+            }
+
+            cell.clear();
+            cell.putLong(lastLogin[row]).flip();
+            channel.write(cell, getLastLoginOffset() + (long) row * 8);
+
+            for (int i = 0; i < columns.length; i++) {
+                cell.clear();
+                cell.putInt(columns[i][row]).flip();
+                channel.write(cell, getColumnOffset(i) + (long) row * 4);
+            }
+
+            // Only count the new row once all of its cells are written
+            if (append) {
+                cell.clear();
+                cell.putInt(rowCount).flip();
+                channel.write(cell, ROW_COUNT_OFFSET);
+            }
+
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            tryClose(file);
+        }
+    }
+
+    /**
+     * Write the whole table to a temporary file and swap it in.
+     * <p/>
+     * Must be called while holding the file writing lock.
+     */
+    private boolean writeTable() {
+        File tempFile = new File(usersFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            FileOutputStream fileStream = new FileOutputStream(tempFile);
+            out = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(headerLength);
+            out.writeInt(rowCount);
+            out.writeInt(capacity);
+            out.writeInt(INT_COLUMNS.size());
+
+            for (String column : INT_COLUMNS) {
+                out.writeUTF(column);
+            }
+
+            ByteBuffer name = ByteBuffer.allocate(NAME_WIDTH);
+
+            for (int row = 0; row < capacity; row++) {
+                name.clear();
+
+                if (row < rowCount) {
+                    putName(name, names[row]);
+                }
+
+                out.write(name.array());
+            }
+
+            for (int row = 0; row < capacity; row++) {
+                out.writeLong(lastLogin[row]);
+            }
+
+            for (int[] column : columns) {
+                for (int row = 0; row < capacity; row++) {
+                    out.writeInt(column[row]);
+                }
+            }
+
+            // Make sure the new table is on disk before it replaces the old one
+            out.flush();
+            fileStream.getChannel().force(false);
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(usersFile) && !(usersFile.delete() && tempFile.renameTo(usersFile))) {
+                throw new IOException("Could not replace " + usersFile.getPath());
+            }
+
+            return true;
+        }
+        catch (IOException e) {
+            mcMMO.p.getLogger().severe("Exception while writing " + usersFile.getPath() + " " + e.toString());
+            return false;
+        }
+        finally {
+            tryClose(out);
+        }
+    }
+
+    /**
+     * Read the whole table into memory.
+     * <p/>
+     * Must be called while holding the file writing lock.
+     */
+    private void readTable() {
+        DataInputStream in = null;
+        boolean upgrade = false;
+        boolean corrupted = false;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(usersFile), 64 * 1024));
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an mcMMO users file");
+            }
+
+            int version = in.readInt();
+
+            if (version > VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+
+            in.readInt(); // Header length
+            int storedRows = in.readInt();
+            int storedCapacity = in.readInt();
+            int storedColumnCount = in.readInt();
+            List<String> storedColumns = new ArrayList<String>(storedColumnCount);
+
+            for (int i = 0; i < storedColumnCount; i++) {
+                storedColumns.add(in.readUTF());
+            }
+
+            setCapacity(Math.max(INITIAL_CAPACITY, storedCapacity));
+            rowCount = storedRows;
+
+            byte[] name = new byte[NAME_WIDTH];
+
+            for (int row = 0; row < storedCapacity; row++) {
+                in.readFully(name);
+
+                if (row < storedRows) {
+                    names[row] = new String(name, 1, name[0] & 0xFF, CHARSET);
+                    rowIndex.put(names[row].toLowerCase(), row);
+                }
+            }
+
+            readColumn(in, storedCapacity, 8).asLongBuffer().get(lastLogin, 0, storedCapacity);
+
+            for (String column : storedColumns) {
+                ByteBuffer data = readColumn(in, storedCapacity, 4);
+                int index = INT_COLUMNS.indexOf(column);
+
+                // Dropped column, skip it
+                if (index != -1) {
+                    data.asIntBuffer().get(columns[index], 0, storedCapacity);
+                }
+            }
+
+            // Columns were added or removed since the file was written
+            upgrade = !storedColumns.equals(INT_COLUMNS) || version != VERSION || capacity != storedCapacity;
+        }
+        catch (Exception e) {
+            mcMMO.p.getLogger().severe("Exception while reading " + usersFile.getPath() + " (Is it corrupted?) " + e.toString());
+            corrupted = true;
+        }
+        finally {
+            tryClose(in);
+        }
+
+        if (corrupted) {
+            // mcmmo.users is from before the migration, so starting over from it would roll every player back
+            if (!Config.getInstance().getFlatfileBinaryReimportDamaged()) {
+                mcMMO.p.getLogger().severe(usersFile.getPath() + " could not be read, so the database will not start. Restore it from a backup, "
+                        + "or set Flatfile.Binary.Reimport_Damaged to true to import mcmmo.users again, losing every change made since it was imported.");
+                throw new IllegalStateException("Could not read " + usersFile.getPath());
+            }
+
+            if (FlatfileDatabaseManager.findUserFiles().isEmpty()) {
+                mcMMO.p.getLogger().severe(usersFile.getPath() + " could not be read and there is no mcmmo.users to import again, so the database will not start.");
+                throw new IllegalStateException("Could not read " + usersFile.getPath());
+            }
+
+            // Keep the broken file around rather than overwriting it
+            File backup = new File(usersFile.getPath() + ".corrupt-" + System.currentTimeMillis());
+
+            mcMMO.p.getLogger().severe("Moving it to " + backup.getName() + " and importing mcmmo.users again, as Flatfile.Binary.Reimport_Damaged is set.");
+            usersFile.renameTo(backup);
+            clearTable();
+            importTextDatabase();
+        }
+        else if (upgrade) {
+            writeTable();
+        }
+    }
+
+    private void clearTable() {
+        rowIndex.clear();
+        names = new String[0];
+        lastLogin = new long[0];
+        columns = new int[INT_COLUMNS.size()][0];
+        rowCount = 0;
+        capacity = 0;
+    }
+
+    private ByteBuffer readColumn(DataInputStream in, int rows, int width) throws IOException {
+        byte[] data = new byte[rows * width];
+
+        in.readFully(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Import every player from mcmmo.users.
+     * <p/>
+     * Must be called while holding the file writing lock.
+     */
+    private void importTextDatabase() {
+        setCapacity(INITIAL_CAPACITY);
+
+        if (!FlatfileDatabaseManager.findUserFiles().isEmpty()) {
+            mcMMO.p.getLogger().info("Migrating mcmmo.users to the binary format...");
+
+            importing = true;
+            boolean imported;
+
+            try {
+                imported = FlatfileDatabaseManager.importUsers(this);
+            }
+            finally {
+                importing = false;
+            }
+
+            importLastLogins(FlatfileDatabaseManager.findUserFiles());
+
+            if (imported) {
+                mcMMO.p.getLogger().info("Migrated " + rowCount + " users, mcmmo.users was left as a backup.");
+            }
+            else {
+                mcMMO.p.getLogger().severe("Migrated only " + rowCount + " users, see the errors above. mcmmo.users was left as a backup.");
+            }
+        }
+
+        writeTable();
+    }
+
+    /**
+     * Profiles don't carry the last login time, so copy it from mcmmo.users
+     * separately. Otherwise every imported player would look like they just
+     * logged in.
+     */
+    private void importLastLogins(List<File> usersFiles) {
+        for (File usersFile : usersFiles) {
+            FlatfileScanner in = null;
+
+            try {
+                in = new FlatfileScanner(usersFile);
+                FlatfileRecord record;
+
+                while ((record = in.nextRecord()) != null) {
+                    Integer row = rowIndex.get(record.getName().toLowerCase());
+
+                    if (row == null) {
+                        continue;
+                    }
+
+                    try {
+                        lastLogin[row] = record.getLong(LAST_LOGIN_FIELD);
+                    }
+                    catch (RuntimeException e) {
+                        lastLogin[row] = 0;
+                    }
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            finally {
+                tryClose(in);
+            }
+        }
+    }
+
+    private void putName(ByteBuffer cell, String name) {
+        byte[] data = name.getBytes(CHARSET);
+
+        cell.put((byte) data.length);
+        cell.put(data);
+
+        while (cell.hasRemaining()) {
+            cell.put((byte) 0);
+        }
+    }
+
+    private static int addColumn(String name) {
+        INT_COLUMNS.add(name);
+        return INT_COLUMNS.size() - 1;
+    }
+
+    private static int getHeaderLength() {
+        int length = 6 * 4;
+
+        for (String column : INT_COLUMNS) {
+            length += 2 + column.getBytes(CHARSET).length;
+        }
+
+        return length;
+    }
+
+    private long getLastLoginOffset() {
+        return headerLength + (long) capacity * NAME_WIDTH;
+    }
+
+    private long getColumnOffset(int column) {
+        return getLastLoginOffset() + (long) capacity * 8 + (long) column * capacity * 4;
+    }
+
+    private long getFileLength() {
+        return getColumnOffset(columns.length);
+    }
+
+    private void tryClose(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
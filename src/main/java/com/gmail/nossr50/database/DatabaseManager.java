@@ -84,8 +84,11 @@ public interface DatabaseManager {
     public List<String> getStoredUsers();
 
     /**
-     * Convert all users from this database to the provided database using
-     * {@link #saveUser(PlayerProfile)}.
+     * Convert all users from this database to the provided database, in
+     * batches through {@link DatabaseManagerFactory#saveConvertedUsers} when
+     * it is a {@link BatchDatabaseManager}, or one by one through
+     * {@link #saveUser(PlayerProfile)} otherwise. Users who can't be saved
+     * are logged.
      *
      * @param destination The DatabaseManager to save to
      */
@@ -1,8 +1,12 @@
 package com.gmail.nossr50.database;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.config.Config;
 import com.gmail.nossr50.datatypes.database.DatabaseType;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
 
 public class DatabaseManagerFactory {
     private static Class<? extends DatabaseManager> customManager = null;
@@ -23,7 +27,15 @@ public class DatabaseManagerFactory {
             mcMMO.p.debug("Falling back on " + (Config.getInstance().getUseMySQL() ? "SQL" : "Flatfile") + " database");
         }
 
-        return Config.getInstance().getUseMySQL() ? new SQLDatabaseManager() : new FlatfileDatabaseManager();
+        if (Config.getInstance().getUseMySQL()) {
+            return new SQLDatabaseManager();
+        }
+
+        if (Config.getInstance().getFlatfileSQLiteFormat()) {
+            return new SQLDatabaseManager(SQLDialect.SQLITE);
+        }
+
+        return Config.getInstance().getFlatfileBinaryFormat() ? new BinaryFlatfileDatabaseManager() : new FlatfileDatabaseManager();
     }
 
     /**
@@ -61,9 +73,15 @@ public class DatabaseManagerFactory {
             case FLATFILE:
                 return new FlatfileDatabaseManager();
 
+            case BINARY:
+                return new BinaryFlatfileDatabaseManager();
+
             case SQL:
                 return new SQLDatabaseManager();
 
+            case SQLITE:
+                return new SQLDatabaseManager(SQLDialect.SQLITE);
+
             case CUSTOM:
                 try {
                     return createDefaultCustomDatabaseManager();
@@ -77,6 +95,67 @@ public class DatabaseManagerFactory {
         }
     }
 
+    /**
+     * Save several users to a database, at once if it is a
+     * {@link BatchDatabaseManager}. Custom managers that only implement
+     * {@link DatabaseManager} get their users one by one.
+     *
+     * @param databaseManager The DatabaseManager to save to
+     * @param snapshots Snapshots of the profiles of the players to save
+     * @return true if every profile was saved, false on failure
+     */
+    public static boolean saveUsers(DatabaseManager databaseManager, Collection<ProfileSnapshot> snapshots) {
+        if (databaseManager instanceof BatchDatabaseManager) {
+            return ((BatchDatabaseManager) databaseManager).saveUsers(snapshots);
+        }
+
+        boolean success = true;
+
+        for (ProfileSnapshot snapshot : snapshots) {
+            if (!databaseManager.saveUser(snapshot.toProfile())) {
+                success = false;
+            }
+        }
+
+        return success;
+    }
+
+    /**
+     * Save a batch of users converted from another database. When the batch
+     * fails, its users are saved one by one, so that a user who can't be
+     * saved doesn't lose the rest of the batch.
+     *
+     * @param destination The DatabaseManager to save to
+     * @param batch Snapshots of the profiles of the players to save
+     * @return how many users could not be saved
+     */
+    public static int saveConvertedUsers(DatabaseManager destination, Collection<ProfileSnapshot> batch) {
+        if (trySaveUsers(destination, batch)) {
+            return 0;
+        }
+
+        int failedUsers = 0;
+
+        for (ProfileSnapshot snapshot : batch) {
+            if (!trySaveUsers(destination, Collections.singletonList(snapshot))) {
+                mcMMO.p.getLogger().warning("Could not convert the user " + snapshot.getPlayerName() + ".");
+                failedUsers++;
+            }
+        }
+
+        return failedUsers;
+    }
+
+    private static boolean trySaveUsers(DatabaseManager destination, Collection<ProfileSnapshot> snapshots) {
+        try {
+            return saveUsers(destination, snapshots);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     public static DatabaseManager createDefaultCustomDatabaseManager() throws Throwable {
         return customManager.getConstructor((Class<?>) null).newInstance((Object[]) null);
     }
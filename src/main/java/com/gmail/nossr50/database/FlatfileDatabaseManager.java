@@ -1,19 +1,27 @@
 package com.gmail.nossr50.database;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.bukkit.OfflinePlayer;
 
@@ -23,179 +31,149 @@ import com.gmail.nossr50.datatypes.MobHealthbarType;
 import com.gmail.nossr50.datatypes.database.DatabaseType;
 import com.gmail.nossr50.datatypes.database.PlayerStat;
 import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
 import com.gmail.nossr50.datatypes.skills.AbilityType;
 import com.gmail.nossr50.datatypes.skills.SkillType;
+import com.gmail.nossr50.runnables.database.FlatfileJournalCompactionTask;
 import com.gmail.nossr50.util.Misc;
 
-public final class FlatfileDatabaseManager implements DatabaseManager {
-    private final HashMap<SkillType, List<PlayerStat>> playerStatHash = new HashMap<SkillType, List<PlayerStat>>();
-    private final List<PlayerStat> powerLevels = new ArrayList<PlayerStat>();
-    private long lastUpdate = 0;
+public final class FlatfileDatabaseManager implements BatchDatabaseManager {
+    private final FlatfileLeaderboards leaderboards = new FlatfileLeaderboards();
 
-    private final long UPDATE_WAIT_TIME = 600000L; // 10 minutes
-    private final File usersFile;
-    private static final Object fileWritingLock = new Object();
+    // Players are spread over the shards by the hash of their lowercase name
+    private final FlatfileShard[] shards;
 
-    protected FlatfileDatabaseManager() {
-        usersFile = new File(mcMMO.getUsersFilePath());
-        checkStructure();
-        updateLeaderboards();
-    }
+    private static final int FIELD_LAST_LOGIN = 37;
+    private static final int FIELD_MOB_HEALTHBAR = 38;
 
-    public void purgePowerlessUsers() {
-        int purgedUsers = 0;
+    // Save journal, null unless journaled saving is enabled
+    private final FlatfileJournal journal;
 
-        mcMMO.p.getLogger().info("Purging powerless users...");
+    // Runs the per-shard tasks of purges and leaderboard rebuilds, shut down by close()
+    private final ExecutorService shardPool;
 
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
+    protected FlatfileDatabaseManager() {
+        shards = openShards(Config.getInstance().getFlatfileShards());
+        shardPool = Executors.newFixedThreadPool(Math.min(shards.length, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mcMMO Flatfile Shard Worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
-        // This code is O(n) instead of O(n²)
-        synchronized (fileWritingLock) {
-            try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line = "";
+        if (Config.getInstance().getFlatfileJournalEnabled()) {
+            journal = new FlatfileJournal(new File(mcMMO.getFlatFileDirectory(), "mcmmo.users.journal"));
+            journal.recover();
+            compactJournal();
 
-                while ((line = in.readLine()) != null) {
-                    String[] character = line.split(":");
-                    Map<SkillType, Integer> skills = getSkillMapFromLine(character);
+            long compactInterval = Config.getInstance().getFlatfileJournalCompactInterval() * Misc.TICK_CONVERSION_FACTOR;
+            new FlatfileJournalCompactionTask(this).runTaskTimerAsynchronously(mcMMO.p, compactInterval, compactInterval);
+        }
+        else {
+            journal = null;
+        }
 
-                    boolean powerless = true;
-                    for (int skill : skills.values()) {
-                        if (skill != 0) {
-                            powerless = false;
-                            break;
-                        }
-                    }
+        buildLeaderboards();
+    }
 
-                    // If they're still around, rewrite them to the file.
-                    if (!powerless) {
-                        writer.append(line).append("\r\n");
-                    }
-                    else {
-                        purgedUsers++;
-                        Misc.profileCleanup(character[0]);
-                    }
-                }
+    public void purgePowerlessUsers() {
+        mcMMO.p.getLogger().info("Purging powerless users...");
 
-                // Write the new file
-                out = new FileWriter(usersFilePath);
-                out.write(writer.toString());
-            }
-            catch (IOException e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
-            }
-            finally {
-                tryClose(in);
-                tryClose(out);
+        compactJournal();
+
+        List<String> purgedUsers = processShards(new ShardTask() {
+            public List<String> run(FlatfileShard shard) {
+                return purgePowerlessUsers(shard);
             }
+        });
+
+        for (String playerName : purgedUsers) {
+            leaderboards.remove(playerName);
+            Misc.profileCleanup(playerName);
         }
 
-        mcMMO.p.getLogger().info("Purged " + purgedUsers + " users from the database.");
+        mcMMO.p.getLogger().info("Purged " + purgedUsers.size() + " users from the database.");
     }
 
     public void purgeOldUsers() {
-        int removedPlayers = 0;
-        long currentTime = System.currentTimeMillis();
+        final long currentTime = System.currentTimeMillis();
 
         mcMMO.p.getLogger().info("Purging old users...");
 
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-
-        // This code is O(n) instead of O(n²)
-        synchronized (fileWritingLock) {
-            try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line = "";
-
-                while ((line = in.readLine()) != null) {
-                    String[] character = line.split(":");
-                    String name = character[0];
-                    long lastPlayed = 0;
-                    boolean rewrite = false;
-                    try {
-                        lastPlayed = Long.parseLong(character[37]) * Misc.TIME_CONVERSION_FACTOR;
-                    }
-                    catch (NumberFormatException e) {
-                    }
-                    if (lastPlayed == 0) {
-                        OfflinePlayer player = mcMMO.p.getServer().getOfflinePlayer(name);
-                        lastPlayed = player.getLastPlayed();
-                        rewrite = true;
-                    }
-
-                    if (currentTime - lastPlayed > PURGE_TIME) {
-                        removedPlayers++;
-                        Misc.profileCleanup(name);
-                    }
-                    else {
-                        if (rewrite) {
-                            // Rewrite their data with a valid time
-                            character[37] = Long.toString(lastPlayed);
-                            String newLine = org.apache.commons.lang.StringUtils.join(character, ":");
-                            writer.append(newLine).append("\r\n");
-                        }
-                        else {
-                            writer.append(line).append("\r\n");
-                        }
-                    }
-                }
+        compactJournal();
 
-                // Write the new file
-                out = new FileWriter(usersFilePath);
-                out.write(writer.toString());
+        // Look up every missing last login at once instead of asking the server player by player
+        final Map<String, Long> lastPlayed = readMissingLastLogins(processShards(new ShardTask() {
+            public List<String> run(FlatfileShard shard) {
+                return findMissingLastLogins(shard);
             }
-            catch (IOException e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
-            }
-            finally {
-                tryClose(in);
-                tryClose(out);
+        }));
+
+        List<String> removedPlayers = processShards(new ShardTask() {
+            public List<String> run(FlatfileShard shard) {
+                return purgeOldUsers(shard, currentTime, lastPlayed);
             }
+        });
+
+        for (String playerName : removedPlayers) {
+            leaderboards.remove(playerName);
+            Misc.profileCleanup(playerName);
         }
 
-        mcMMO.p.getLogger().info("Purged " + removedPlayers + " users from the database.");
+        mcMMO.p.getLogger().info("Purged " + removedPlayers.size() + " users from the database.");
     }
 
     public boolean removeUser(String playerName) {
         boolean worked = false;
 
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
+        FlatfileScanner in = null;
+        FlatfileWriter out = null;
+        FlatfileShard shard = getShard(playerName);
+        File usersFile = shard.getFile();
+
+        compactJournal();
 
-        synchronized (fileWritingLock) {
+        synchronized (shard.getLock()) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line = "";
+                // A save journaled since the compaction must not bring the player back
+                if (journal != null) {
+                    journal.discard(playerName);
+                }
 
-                while ((line = in.readLine()) != null) {
+                in = new FlatfileScanner(usersFile);
+                out = new FlatfileWriter(usersFile);
+                FlatfileRecord record;
+
+                while ((record = in.nextRecord()) != null) {
                     // Write out the same file but when we get to the player we want to remove, we skip his line.
-                    if (!worked && line.split(":")[0].equalsIgnoreCase(playerName)) {
+                    if (!worked && record.getName().equalsIgnoreCase(playerName)) {
                         mcMMO.p.getLogger().info("User found, removing...");
                         worked = true;
                         continue; // Skip the player
                     }
 
-                    writer.append(line).append("\r\n");
+                    out.write(record);
                 }
 
-                out = new FileWriter(usersFilePath); // Write out the new file
-                out.write(writer.toString());
+                // Only replace the file if there was something to remove
+                in.close();
+
+                if (worked) {
+                    out.commit();
+                    leaderboards.remove(playerName);
+                }
             }
             catch (Exception e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
+                mcMMO.p.getLogger().severe("Exception while reading " + usersFile.getPath() + " (Are you sure you formatted it correctly?)" + e.toString());
+                worked = false;
             }
             finally {
                 tryClose(in);
                 tryClose(out);
             }
+
+            shard.buildIndex();
         }
 
         Misc.profileCleanup(playerName);
@@ -204,503 +182,689 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
     }
 
     public boolean saveUser(PlayerProfile profile) {
-        String playerName = profile.getPlayerName();
+        return saveUsers(Collections.singletonList(profile.getSnapshot()));
+    }
 
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
+    public boolean saveUsers(Collection<ProfileSnapshot> profiles) {
+        Map<String, String> records = new LinkedHashMap<String, String>();
+
+        for (ProfileSnapshot profile : profiles) {
+            records.put(profile.getPlayerName().toLowerCase(), writeRecord(profile));
+        }
 
-        synchronized (fileWritingLock) {
+        if (journal != null) {
             try {
-                // Open the file
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line;
+                journal.append(records);
 
-                // While not at the end of the file
-                while ((line = in.readLine()) != null) {
-                    // Read the line in and copy it to the output it's not the player we want to edit
-                    if (!line.split(":")[0].equalsIgnoreCase(playerName)) {
-                        writer.append(line).append("\r\n");
-                    }
-                    else {
-                        // Otherwise write the new player information
-                        writer.append(playerName).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.MINING)).append(":");
-                        writer.append(":");
-                        writer.append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.MINING)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.WOODCUTTING)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.WOODCUTTING)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.REPAIR)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.UNARMED)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.HERBALISM)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.EXCAVATION)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.ARCHERY)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.SWORDS)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.AXES)).append(":");
-                        writer.append(profile.getSkillLevel(SkillType.ACROBATICS)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.REPAIR)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.UNARMED)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.HERBALISM)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.EXCAVATION)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.ARCHERY)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.SWORDS)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.AXES)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.ACROBATICS)).append(":");
-                        writer.append(":");
-                        writer.append(profile.getSkillLevel(SkillType.TAMING)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.TAMING)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.BERSERK)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.GIGA_DRILL_BREAKER)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.TREE_FELLER)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.GREEN_TERRA)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.SERRATED_STRIKES)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.SKULL_SPLITTER)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.SUPER_BREAKER)).append(":");
-                        writer.append(":");
-                        writer.append(profile.getSkillLevel(SkillType.FISHING)).append(":");
-                        writer.append(profile.getSkillXpLevel(SkillType.FISHING)).append(":");
-                        writer.append((int) profile.getSkillDATS(AbilityType.BLAST_MINING)).append(":");
-                        writer.append(System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR).append(":");
-                        MobHealthbarType mobHealthbarType = profile.getMobHealthbarType();
-                        writer.append(mobHealthbarType == null ? Config.getInstance().getMobHealthbarDefault().toString() : mobHealthbarType.toString()).append(":");
-                        writer.append("\r\n");
-                    }
+                for (ProfileSnapshot profile : profiles) {
+                    leaderboards.update(profile);
                 }
 
-                // Write the new file
-                out = new FileWriter(usersFilePath);
-                out.write(writer.toString());
                 return true;
             }
-            catch (Exception e) {
+            catch (IOException e) {
                 e.printStackTrace();
                 return false;
             }
-            finally {
-                tryClose(in);
-                tryClose(out);
-            }
         }
-    }
-
-    public List<PlayerStat> readLeaderboard(String skillName, int pageNumber, int statsPerPage) {
-        updateLeaderboards();
-        List<PlayerStat> statsList = skillName.equalsIgnoreCase("all") ? powerLevels : playerStatHash.get(SkillType.getSkill(skillName));
-        int fromIndex = (Math.max(pageNumber, 1) - 1) * statsPerPage;
 
-        return statsList.subList(Math.min(fromIndex, statsList.size()), Math.min(fromIndex + statsPerPage, statsList.size()));
-    }
+        boolean success = true;
 
-    public Map<String, Integer> readRank(String playerName) {
-        updateLeaderboards();
+        // Every shard is written in a single pass
+        for (Map.Entry<Integer, Map<String, String>> entry : groupByShard(records).entrySet()) {
+            FlatfileShard shard = shards[entry.getKey()];
 
-        Map<String, Integer> skills = new HashMap<String, Integer>();
+            synchronized (shard.getLock()) {
+                try {
+                    success &= shard.saveRecords(entry.getValue());
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                    success = false;
+                }
+            }
+        }
 
-        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
-            skills.put(skill.name(), getPlayerRank(playerName, playerStatHash.get(skill)));
+        if (success) {
+            for (ProfileSnapshot profile : profiles) {
+                leaderboards.update(profile);
+            }
         }
 
-        skills.put("ALL", getPlayerRank(playerName, powerLevels));
+        return success;
+    }
 
-        return skills;
+    public List<PlayerStat> readLeaderboard(String skillName, int pageNumber, int statsPerPage) {
+        return leaderboards.readLeaderboard(skillName, pageNumber, statsPerPage);
+    }
+
+    public Map<String, Integer> readRank(String playerName) {
+        return leaderboards.readRank(playerName);
     }
 
     public void newUser(String playerName) {
-        BufferedWriter out = null;
-        synchronized (fileWritingLock) {
+        StringBuilder writer = new StringBuilder();
+
+        // Add the player to the end
+        writer.append(playerName).append(":");
+        writer.append("0:"); // Mining
+        writer.append(":");
+        writer.append(":");
+        writer.append("0:"); // Xp
+        writer.append("0:"); // Woodcutting
+        writer.append("0:"); // WoodCuttingXp
+        writer.append("0:"); // Repair
+        writer.append("0:"); // Unarmed
+        writer.append("0:"); // Herbalism
+        writer.append("0:"); // Excavation
+        writer.append("0:"); // Archery
+        writer.append("0:"); // Swords
+        writer.append("0:"); // Axes
+        writer.append("0:"); // Acrobatics
+        writer.append("0:"); // RepairXp
+        writer.append("0:"); // UnarmedXp
+        writer.append("0:"); // HerbalismXp
+        writer.append("0:"); // ExcavationXp
+        writer.append("0:"); // ArcheryXp
+        writer.append("0:"); // SwordsXp
+        writer.append("0:"); // AxesXp
+        writer.append("0:"); // AcrobaticsXp
+        writer.append(":");
+        writer.append("0:"); // Taming
+        writer.append("0:"); // TamingXp
+        writer.append("0:"); // DATS
+        writer.append("0:"); // DATS
+        writer.append("0:"); // DATS
+        writer.append("0:"); // DATS
+        writer.append("0:"); // DATS
+        writer.append("0:"); // DATS
+        writer.append("0:"); // DATS
+        writer.append(":");
+        writer.append("0:"); // Fishing
+        writer.append("0:"); // FishingXp
+        writer.append("0:"); // Blast Mining
+        writer.append(String.valueOf(System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR)).append(":"); // LastLogin
+        writer.append(Config.getInstance().getMobHealthbarDefault().toString()).append(":"); // Mob Healthbar HUD
+
+        // Add more in the same format as the line above
+
+        FlatfileShard shard = getShard(playerName);
+
+        synchronized (shard.getLock()) {
             try {
-                // Open the file to write the player
-                out = new BufferedWriter(new FileWriter(mcMMO.getUsersFilePath(), true));
-
-                // Add the player to the end
-                out.append(playerName).append(":");
-                out.append("0:"); // Mining
-                out.append(":");
-                out.append(":");
-                out.append("0:"); // Xp
-                out.append("0:"); // Woodcutting
-                out.append("0:"); // WoodCuttingXp
-                out.append("0:"); // Repair
-                out.append("0:"); // Unarmed
-                out.append("0:"); // Herbalism
-                out.append("0:"); // Excavation
-                out.append("0:"); // Archery
-                out.append("0:"); // Swords
-                out.append("0:"); // Axes
-                out.append("0:"); // Acrobatics
-                out.append("0:"); // RepairXp
-                out.append("0:"); // UnarmedXp
-                out.append("0:"); // HerbalismXp
-                out.append("0:"); // ExcavationXp
-                out.append("0:"); // ArcheryXp
-                out.append("0:"); // SwordsXp
-                out.append("0:"); // AxesXp
-                out.append("0:"); // AcrobaticsXp
-                out.append(":");
-                out.append("0:"); // Taming
-                out.append("0:"); // TamingXp
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append(":");
-                out.append("0:"); // Fishing
-                out.append("0:"); // FishingXp
-                out.append("0:"); // Blast Mining
-                out.append(String.valueOf(System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR)).append(":"); // LastLogin
-                out.append(Config.getInstance().getMobHealthbarDefault().toString()).append(":"); // Mob Healthbar HUD
-
-                // Add more in the same format as the line above
-
-                out.newLine();
+                if (journal == null) {
+                    shard.addRecord(playerName, writer.toString());
+                }
+                else if (journal.getRecord(playerName) == null && !shard.hasRecord(playerName)) {
+                    journal.append(playerName, writer.toString());
+                }
+
+                if (!leaderboards.contains(playerName)) {
+                    leaderboards.update(playerName, new int[SkillType.NON_CHILD_SKILLS.size()]);
+                }
             }
             catch (Exception e) {
                 e.printStackTrace();
             }
-            finally {
-                tryClose(out);
-            }
         }
     }
 
     public PlayerProfile loadPlayerProfile(String playerName, boolean create) {
-        BufferedReader in = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-
-        synchronized (fileWritingLock) {
-            try {
-                // Open the user file
-                in = new BufferedReader(new FileReader(usersFilePath));
-                String line;
-
-                while ((line = in.readLine()) != null) {
-                    // Find if the line contains the player we want.
-                    String[] character = line.split(":");
+        try {
+            // Journaled records are newer than anything in the users file.
+            // Records only leave the journal once they are in their shard, so checking it first is safe.
+            String record = journal == null ? null : journal.getRecord(playerName);
 
-                    if (!character[0].equalsIgnoreCase(playerName)) {
-                        continue;
-                    }
+            if (record == null) {
+                FlatfileShard shard = getShard(playerName);
 
-                    PlayerProfile p = loadFromLine(character);
-                    return p;
-                }
-
-                // Didn't find the player, create a new one
-                if (create) {
-                    newUser(playerName);
-                    return new PlayerProfile(playerName, true);
+                synchronized (shard.getLock()) {
+                    record = shard.loadRecord(playerName);
                 }
             }
-            catch (Exception e) {
-                e.printStackTrace();
+
+            if (record != null) {
+                return loadFromRecord(FlatfileRecord.parse(record));
             }
-            finally {
-                tryClose(in);
+
+            // Didn't find the player, create a new one
+            if (create) {
+                newUser(playerName);
+                return new PlayerProfile(playerName, true);
             }
         }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
 
         // Return unloaded profile
         return new PlayerProfile(playerName);
     }
 
     public void convertUsers(DatabaseManager destination) {
-        BufferedReader in = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
         int convertedUsers = 0;
+        int failedUsers = 0;
         long startMillis = System.currentTimeMillis();
 
-        synchronized (fileWritingLock) {
+        compactJournal();
+
+        for (FlatfileShard shard : shards) {
+            FlatfileScanner in = null;
+
+            synchronized (shard.getLock()) {
+                try {
+                    // Open the user file
+                    in = new FlatfileScanner(shard.getFile());
+                    FlatfileRecord record;
+                    List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>(conversionBatchSize);
+
+                    while ((record = in.nextRecord()) != null) {
+                        try {
+                            batch.add(loadFromRecord(record).getSnapshot());
+                        }
+                        catch (Exception e) {
+                            e.printStackTrace();
+                        }
+
+                        if (batch.size() >= conversionBatchSize) {
+                            failedUsers += DatabaseManagerFactory.saveConvertedUsers(destination, batch);
+                            batch = new ArrayList<ProfileSnapshot>(conversionBatchSize);
+                        }
+
+                        convertedUsers++;
+                        Misc.printProgress(convertedUsers, progressInterval, startMillis);
+                    }
+
+                    if (!batch.isEmpty()) {
+                        failedUsers += DatabaseManagerFactory.saveConvertedUsers(destination, batch);
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                finally {
+                    tryClose(in);
+                }
+            }
+        }
+
+        if (failedUsers > 0) {
+            mcMMO.p.getLogger().severe(failedUsers + " of " + convertedUsers + " users could not be converted.");
+        }
+    }
+
+    public List<String> getStoredUsers() {
+        ArrayList<String> users = new ArrayList<String>();
+
+        compactJournal();
+
+        for (FlatfileShard shard : shards) {
+            FlatfileScanner in = null;
+
+            synchronized (shard.getLock()) {
+                try {
+                    // Open the user file
+                    in = new FlatfileScanner(shard.getFile());
+                    FlatfileRecord record;
+
+                    while ((record = in.nextRecord()) != null) {
+                        users.add(record.getName());
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                finally {
+                    tryClose(in);
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Find the users files left on disk, whatever number of shards they were
+     * written with.
+     *
+     * @return the existing users files, mcmmo.users first
+     */
+    static List<File> findUserFiles() {
+        final File usersFile = new File(mcMMO.getUsersFilePath());
+        List<File> files = new ArrayList<File>();
+
+        if (usersFile.isFile()) {
+            files.add(usersFile);
+        }
+
+        File[] shardFiles = usersFile.getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(usersFile.getName() + ".") && name.substring(usersFile.getName().length() + 1).matches("[0-9]+");
+            }
+        });
+
+        if (shardFiles != null) {
+            Arrays.sort(shardFiles);
+            files.addAll(Arrays.asList(shardFiles));
+        }
+
+        return files;
+    }
+
+    /**
+     * Copy every player in the users files on disk to another database.
+     * <p/>
+     * The files are only read: unlike opening them as a database, nothing is
+     * padded, resharded or compacted. Records left in the save journal are
+     * newer than the files, so they are used instead.
+     *
+     * @param destination The DatabaseManager to save the players to
+     * @return true if every player was imported, false otherwise
+     */
+    static boolean importUsers(DatabaseManager destination) {
+        FlatfileJournal journal = new FlatfileJournal(new File(mcMMO.getFlatFileDirectory(), "mcmmo.users.journal"));
+        journal.recover();
+
+        Map<String, String> journaled = journal.getRecords();
+        List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>(conversionBatchSize);
+        int failedUsers = 0;
+        boolean success = true;
+
+        for (File usersFile : findUserFiles()) {
+            FlatfileScanner in = null;
+
             try {
-                // Open the user file
-                in = new BufferedReader(new FileReader(usersFilePath));
-                String line;
+                in = new FlatfileScanner(usersFile);
+                FlatfileRecord record;
 
-                while ((line = in.readLine()) != null) {
-                    String[] character = line.split(":");
+                while ((record = in.nextRecord()) != null) {
+                    String journaledRecord = journaled.remove(record.getName().toLowerCase());
 
                     try {
-                        destination.saveUser(loadFromLine(character));
+                        batch.add(loadFromRecord(journaledRecord == null ? record : FlatfileRecord.parse(journaledRecord)).getSnapshot());
                     }
                     catch (Exception e) {
                         e.printStackTrace();
+                        failedUsers++;
+                    }
+
+                    if (batch.size() >= conversionBatchSize) {
+                        failedUsers += DatabaseManagerFactory.saveConvertedUsers(destination, batch);
+                        batch = new ArrayList<ProfileSnapshot>(conversionBatchSize);
                     }
-                    convertedUsers++;
-                    Misc.printProgress(convertedUsers, progressInterval, startMillis);
                 }
             }
-            catch (Exception e) {
+            catch (IOException e) {
+                mcMMO.p.getLogger().severe("Could not read " + usersFile.getName() + ".");
                 e.printStackTrace();
+                success = false;
             }
             finally {
                 tryClose(in);
             }
         }
-    }
 
-    public List<String> getStoredUsers() {
-        ArrayList<String> users = new ArrayList<String>();
-        BufferedReader in = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-
-        synchronized (fileWritingLock) {
+        // Players who never made it from the journal into a users file
+        for (String journaledRecord : journaled.values()) {
             try {
-                // Open the user file
-                in = new BufferedReader(new FileReader(usersFilePath));
-                String line;
-
-                while ((line = in.readLine()) != null) {
-                    String[] character = line.split(":");
-                    users.add(character[0]);
-                }
+                batch.add(loadFromRecord(FlatfileRecord.parse(journaledRecord)).getSnapshot());
             }
             catch (Exception e) {
                 e.printStackTrace();
+                failedUsers++;
             }
-            finally {
-                tryClose(in);
+        }
+
+        if (!batch.isEmpty()) {
+            failedUsers += DatabaseManagerFactory.saveConvertedUsers(destination, batch);
+        }
+
+        if (failedUsers > 0) {
+            mcMMO.p.getLogger().severe(failedUsers + " users could not be imported.");
+        }
+
+        return success && failedUsers == 0;
+    }
+
+    /**
+     * Fill the leader boards from the users files. From then on they are kept
+     * up to date by saves and removals.
+     */
+    private void buildLeaderboards() {
+        int[] levels = new int[SkillType.NON_CHILD_SKILLS.size()];
+
+        compactJournal();
+
+        // Read from the FlatFile database and fill the boards with information
+        for (FlatfileShard shard : shards) {
+            FlatfileScanner in = null;
+            String playerName = null;
+
+            synchronized (shard.getLock()) {
+                try {
+                    in = new FlatfileScanner(shard.getFile());
+                    FlatfileRecord record;
+
+                    while ((record = in.nextRecord()) != null) {
+                        playerName = record.getName();
+
+                        // Like a profile load, the first record of a player wins
+                        if (leaderboards.contains(playerName)) {
+                            continue;
+                        }
+
+                        for (int i = 0; i < levels.length; i++) {
+                            levels[i] = getSkillLevel(record, SkillType.NON_CHILD_SKILLS.get(i));
+                        }
+
+                        leaderboards.update(playerName, levels);
+                    }
+                }
+                catch (Exception e) {
+                    mcMMO.p.getLogger().severe("Exception while reading " + shard.getFile().getPath() + " during user " + playerName + " (Are you sure you formatted it correctly?) " + e.toString());
+                }
+                finally {
+                    tryClose(in);
+                }
             }
         }
-        return users;
     }
 
     /**
-     * Update the leader boards.
+     * Open the configured number of shards, moving the users over if the
+     * files on disk were written with a different number of shards.
      */
-    private void updateLeaderboards() {
-        // Only update FFS leaderboards every 10 minutes.. this puts a lot of strain on the server (depending on the size of the database) and should not be done frequently
-        if (System.currentTimeMillis() < lastUpdate + UPDATE_WAIT_TIME) {
-            return;
+    private FlatfileShard[] openShards(int count) {
+        File[] files = new File[count];
+
+        if (count == 1) {
+            files[0] = new File(mcMMO.getUsersFilePath());
+        }
+        else {
+            for (int i = 0; i < count; i++) {
+                files[i] = new File(mcMMO.getUsersFilePath() + "." + i);
+            }
         }
 
-        String usersFilePath = mcMMO.getUsersFilePath();
-        lastUpdate = System.currentTimeMillis(); // Log when the last update was run
-        powerLevels.clear(); // Clear old values from the power levels
-
-        // Initialize lists
-        List<PlayerStat> mining = new ArrayList<PlayerStat>();
-        List<PlayerStat> woodcutting = new ArrayList<PlayerStat>();
-        List<PlayerStat> herbalism = new ArrayList<PlayerStat>();
-        List<PlayerStat> excavation = new ArrayList<PlayerStat>();
-        List<PlayerStat> acrobatics = new ArrayList<PlayerStat>();
-        List<PlayerStat> repair = new ArrayList<PlayerStat>();
-        List<PlayerStat> swords = new ArrayList<PlayerStat>();
-        List<PlayerStat> axes = new ArrayList<PlayerStat>();
-        List<PlayerStat> archery = new ArrayList<PlayerStat>();
-        List<PlayerStat> unarmed = new ArrayList<PlayerStat>();
-        List<PlayerStat> taming = new ArrayList<PlayerStat>();
-        List<PlayerStat> fishing = new ArrayList<PlayerStat>();
+        List<File> existing = findUserFiles();
 
-        BufferedReader in = null;
-        String playerName = null;
-        // Read from the FlatFile database and fill our arrays with information
-        synchronized (fileWritingLock) {
-            try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                String line = "";
+        for (File file : existing) {
+            checkStructure(new FlatfileShard(file));
+        }
 
-                while ((line = in.readLine()) != null) {
-                    String[] data = line.split(":");
-                    playerName = data[0];
-                    int powerLevel = 0;
+        // Moving from or to a single file, or a changed number of shards
+        List<File> wanted = Arrays.asList(files);
+
+        if (!wanted.containsAll(existing) || (!existing.isEmpty() && !existing.containsAll(wanted))) {
+            redistribute(existing, files);
+        }
 
-                    Map<SkillType, Integer> skills = getSkillMapFromLine(data);
+        FlatfileShard[] shards = new FlatfileShard[count];
 
-                    powerLevel += putStat(acrobatics, playerName, skills.get(SkillType.ACROBATICS));
-                    powerLevel += putStat(archery, playerName, skills.get(SkillType.ARCHERY));
-                    powerLevel += putStat(axes, playerName, skills.get(SkillType.AXES));
-                    powerLevel += putStat(excavation, playerName, skills.get(SkillType.EXCAVATION));
-                    powerLevel += putStat(fishing, playerName, skills.get(SkillType.FISHING));
-                    powerLevel += putStat(herbalism, playerName, skills.get(SkillType.HERBALISM));
-                    powerLevel += putStat(mining, playerName, skills.get(SkillType.MINING));
-                    powerLevel += putStat(repair, playerName, skills.get(SkillType.REPAIR));
-                    powerLevel += putStat(swords, playerName, skills.get(SkillType.SWORDS));
-                    powerLevel += putStat(taming, playerName, skills.get(SkillType.TAMING));
-                    powerLevel += putStat(unarmed, playerName, skills.get(SkillType.UNARMED));
-                    powerLevel += putStat(woodcutting, playerName, skills.get(SkillType.WOODCUTTING));
+        for (int i = 0; i < count; i++) {
+            if (!files[i].exists()) {
+                files[i].getParentFile().mkdir();
 
-                    putStat(powerLevels, playerName, powerLevel);
+                try {
+                    mcMMO.p.debug("Creating " + files[i].getName() + " file...");
+                    files[i].createNewFile();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
-            catch (Exception e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " during user " + playerName + " (Are you sure you formatted it correctly?) " + e.toString());
-            }
-            finally {
-                tryClose(in);
+
+            shards[i] = new FlatfileShard(files[i]);
+
+            synchronized (shards[i].getLock()) {
+                shards[i].buildIndex();
             }
         }
 
-        SkillComparator c = new SkillComparator();
-
-        Collections.sort(mining, c);
-        Collections.sort(woodcutting, c);
-        Collections.sort(repair, c);
-        Collections.sort(unarmed, c);
-        Collections.sort(herbalism, c);
-        Collections.sort(excavation, c);
-        Collections.sort(archery, c);
-        Collections.sort(swords, c);
-        Collections.sort(axes, c);
-        Collections.sort(acrobatics, c);
-        Collections.sort(taming, c);
-        Collections.sort(fishing, c);
-        Collections.sort(powerLevels, c);
-
-        playerStatHash.put(SkillType.MINING, mining);
-        playerStatHash.put(SkillType.WOODCUTTING, woodcutting);
-        playerStatHash.put(SkillType.REPAIR, repair);
-        playerStatHash.put(SkillType.UNARMED, unarmed);
-        playerStatHash.put(SkillType.HERBALISM, herbalism);
-        playerStatHash.put(SkillType.EXCAVATION, excavation);
-        playerStatHash.put(SkillType.ARCHERY, archery);
-        playerStatHash.put(SkillType.SWORDS, swords);
-        playerStatHash.put(SkillType.AXES, axes);
-        playerStatHash.put(SkillType.ACROBATICS, acrobatics);
-        playerStatHash.put(SkillType.TAMING, taming);
-        playerStatHash.put(SkillType.FISHING, fishing);
+        return shards;
     }
 
     /**
-     * Checks that the file is present and valid
+     * Spread the users of the given files over a new set of shards.
      */
-    private void checkStructure() {
-        if (usersFile.exists()) {
-            BufferedReader in = null;
-            FileWriter out = null;
-            String usersFilePath = mcMMO.getUsersFilePath();
+    private void redistribute(List<File> sources, File[] targets) {
+        mcMMO.p.getLogger().info("Spreading the flatfile database over " + targets.length + " file(s)...");
+
+        FlatfileWriter[] outs = new FlatfileWriter[targets.length];
+        HashSet<String> players = new HashSet<String>();
+        int movedUsers = 0;
+
+        try {
+            for (int i = 0; i < targets.length; i++) {
+                outs[i] = new FlatfileWriter(targets[i]);
+            }
+
+            for (File source : sources) {
+                FlatfileScanner in = null;
 
-            synchronized (fileWritingLock) {
                 try {
-                    in = new BufferedReader(new FileReader(usersFilePath));
-                    StringBuilder writer = new StringBuilder();
-                    String line = "";
-                    HashSet<String> players = new HashSet<String>();
-
-                    while ((line = in.readLine()) != null) {
-                        // Remove empty lines from the file
-                        if (line.isEmpty()) {
+                    in = new FlatfileScanner(source);
+                    FlatfileRecord record;
+
+                    while ((record = in.nextRecord()) != null) {
+                        // Same as everywhere else, the first record of a player wins
+                        if (!players.add(record.getName().toLowerCase())) {
                             continue;
                         }
 
-                        // Length checks depend on last character being ':'
-                        if (line.charAt(line.length() - 1) != ':') {
-                            line = line + ":";
-                        }
-                        String[] character = line.split(":");
+                        outs[getShardIndex(record.getName(), targets.length)].write(record);
+                        movedUsers++;
+                    }
+                }
+                finally {
+                    tryClose(in);
+                }
+            }
 
-                        // Prevent the same player from being present multiple times
-                        if (!players.add(character[0])) {
-                            continue;
-                        }
+            // Every user is safely written, swap the new files in
+            for (FlatfileWriter out : outs) {
+                out.commit();
+            }
+        }
+        catch (IOException e) {
+            mcMMO.p.getLogger().severe("Exception while spreading the flatfile database, the old files were left in place. " + e.toString());
+            return;
+        }
+        finally {
+            for (FlatfileWriter out : outs) {
+                tryClose(out);
+            }
+        }
 
-                        if (character.length < 33) {
-                            // Before Version 1.0 - Drop
-                            mcMMO.p.getLogger().warning("Dropping malformed or before version 1.0 line from database - " + line);
-                            continue;
-                        }
+        List<File> wanted = Arrays.asList(targets);
 
-                        String oldVersion = null;
+        for (File source : sources) {
+            if (!wanted.contains(source)) {
+                source.delete();
+            }
+        }
 
-                        if (!character[33].isEmpty()) {
-                            // Removal of Spout Support
-                            // Version 1.4.07-dev2
-                            // commit 7bac0e2ca5143bce84dc160617fed97f0b1cb968
-                            line = line.replace(character[33], "");
-                            oldVersion = "1.4.07";
-                        }
+        mcMMO.p.getLogger().info("Moved " + movedUsers + " users.");
+    }
 
-                        // If they're valid, rewrite them to the file.
-                        if (character.length > 38) {
-                            writer.append(line).append("\r\n");
-                            continue;
-                        }
+    /**
+     * Checks that the file is valid
+     */
+    private void checkStructure(FlatfileShard shard) {
+        BufferedReader in = null;
+        FileWriter out = null;
+        File usersFile = shard.getFile();
 
-                        StringBuilder newLine = new StringBuilder(line);
+        synchronized (shard.getLock()) {
+            try {
+                in = new BufferedReader(new FileReader(usersFile));
+                StringBuilder writer = new StringBuilder();
+                String line = "";
+                HashSet<String> players = new HashSet<String>();
 
-                        if (character.length <= 33) {
-                            // Introduction of HUDType
-                            // Version 1.1.06
-                            // commit 78f79213cdd7190cd11ae54526f3b4ea42078e8a
-                            newLine.append(":");
-                            oldVersion = "1.1.06";
-                        }
-                        if (character.length <= 35) {
-                            // Introduction of Fishing
-                            // Version 1.2.00
-                            // commit a814b57311bc7734661109f0e77fc8bab3a0bd29
-                            newLine.append(0).append(":");
-                            newLine.append(0).append(":");
-                            if (oldVersion == null) {
-                                oldVersion = "1.2.00";
-                            }
-                        }
-                        if (character.length <= 36) {
-                            // Introduction of Blast Mining cooldowns
-                            // Version 1.3.00-dev
-                            // commit fadbaf429d6b4764b8f1ad0efaa524a090e82ef5
-                            newLine.append(0).append(":");
-                            if (oldVersion == null) {
-                                oldVersion = "1.3.00";
-                            }
+                while ((line = in.readLine()) != null) {
+                    // Remove empty lines from the file
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+
+                    // Length checks depend on last character being ':'
+                    if (line.charAt(line.length() - 1) != ':') {
+                        line = line + ":";
+                    }
+                    String[] character = line.split(":");
+
+                    // Prevent the same player from being present multiple times
+                    if (!players.add(character[0])) {
+                        continue;
+                    }
+
+                    if (character.length < 33) {
+                        // Before Version 1.0 - Drop
+                        mcMMO.p.getLogger().warning("Dropping malformed or before version 1.0 line from database - " + line);
+                        continue;
+                    }
+
+                    String oldVersion = null;
+
+                    if (!character[33].isEmpty()) {
+                        // Removal of Spout Support
+                        // Version 1.4.07-dev2
+                        // commit 7bac0e2ca5143bce84dc160617fed97f0b1cb968
+                        line = line.replace(character[33], "");
+                        oldVersion = "1.4.07";
+                    }
+
+                    // If they're valid, rewrite them to the file.
+                    if (character.length > 38) {
+                        writer.append(FlatfileShard.padRecord(FlatfileShard.stripPadding(line))).append("\r\n");
+                        continue;
+                    }
+
+                    StringBuilder newLine = new StringBuilder(line);
+
+                    if (character.length <= 33) {
+                        // Introduction of HUDType
+                        // Version 1.1.06
+                        // commit 78f79213cdd7190cd11ae54526f3b4ea42078e8a
+                        newLine.append(":");
+                        oldVersion = "1.1.06";
+                    }
+                    if (character.length <= 35) {
+                        // Introduction of Fishing
+                        // Version 1.2.00
+                        // commit a814b57311bc7734661109f0e77fc8bab3a0bd29
+                        newLine.append(0).append(":");
+                        newLine.append(0).append(":");
+                        if (oldVersion == null) {
+                            oldVersion = "1.2.00";
                         }
-                        if (character.length <= 37) {
-                            // Making old-purge work with flatfile
-                            // Version 1.4.00-dev
-                            // commmit 3f6c07ba6aaf44e388cc3b882cac3d8f51d0ac28
-                            // XXX Cannot create an OfflinePlayer at startup, use 0 and fix in purge
-                            newLine.append("0").append(":");
-                            if (oldVersion == null) {
-                                oldVersion = "1.4.00";
-                            }
+                    }
+                    if (character.length <= 36) {
+                        // Introduction of Blast Mining cooldowns
+                        // Version 1.3.00-dev
+                        // commit fadbaf429d6b4764b8f1ad0efaa524a090e82ef5
+                        newLine.append(0).append(":");
+                        if (oldVersion == null) {
+                            oldVersion = "1.3.00";
                         }
-                        if (character.length <= 38) {
-                            // Addition of mob healthbars
-                            // Version 1.4.06
-                            // commit da29185b7dc7e0d992754bba555576d48fa08aa6
-                            newLine.append(Config.getInstance().getMobHealthbarDefault().toString()).append(":");
-                            if (oldVersion == null) {
-                                oldVersion = "1.4.06";
-                            }
+                    }
+                    if (character.length <= 37) {
+                        // Making old-purge work with flatfile
+                        // Version 1.4.00-dev
+                        // commmit 3f6c07ba6aaf44e388cc3b882cac3d8f51d0ac28
+                        // XXX Cannot create an OfflinePlayer at startup, use 0 and fix in purge
+                        newLine.append("0").append(":");
+                        if (oldVersion == null) {
+                            oldVersion = "1.4.00";
                         }
-
-                        if (oldVersion != null) {
-                            mcMMO.p.debug("Updating database line for player " + character[0] + " from before version " + oldVersion);
+                    }
+                    if (character.length <= 38) {
+                        // Addition of mob healthbars
+                        // Version 1.4.06
+                        // commit da29185b7dc7e0d992754bba555576d48fa08aa6
+                        newLine.append(Config.getInstance().getMobHealthbarDefault().toString()).append(":");
+                        if (oldVersion == null) {
+                            oldVersion = "1.4.06";
                         }
+                    }
 
-                        writer.append(newLine).append("\r\n");
+                    if (oldVersion != null) {
+                        mcMMO.p.debug("Updating database line for player " + character[0] + " from before version " + oldVersion);
                     }
 
-                    // Write the new file
-                    out = new FileWriter(usersFilePath);
-                    out.write(writer.toString());
-                }
-                catch (IOException e) {
-                    mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
-                }
-                finally {
-                    tryClose(in);
-                    tryClose(out);
+                    writer.append(FlatfileShard.padRecord(newLine.toString())).append("\r\n");
                 }
+
+                // Write the new file
+                out = new FileWriter(usersFile);
+                out.write(writer.toString());
+            }
+            catch (IOException e) {
+                mcMMO.p.getLogger().severe("Exception while reading " + usersFile.getPath() + " (Are you sure you formatted it correctly?)" + e.toString());
             }
+            finally {
+                tryClose(in);
+                tryClose(out);
+            }
+        }
+    }
+
+    /**
+     * Fold the save journal into the users files.
+     * <p/>
+     * The journal lock is never held while waiting for a shard, so saves and
+     * loads can go on while the journal is being compacted.
+     */
+    public void compactJournal() {
+        if (journal == null || journal.isEmpty()) {
             return;
         }
 
-        usersFile.getParentFile().mkdir();
+        Map<String, String> folded = new HashMap<String, String>();
+
+        for (Map.Entry<Integer, Map<String, String>> entry : groupByShard(journal.getRecords()).entrySet()) {
+            FlatfileShard shard = shards[entry.getKey()];
+
+            synchronized (shard.getLock()) {
+                try {
+                    // Players removed or saved again while we waited for the shard are left alone
+                    Map<String, String> records = journal.getCurrent(entry.getValue());
+
+                    // Anything that didn't make it stays in the journal, it will be replayed on the next attempt
+                    if (!records.isEmpty() && shard.saveRecords(records)) {
+                        folded.putAll(records);
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
 
         try {
-            mcMMO.p.debug("Creating mcmmo.users file...");
-            new File(mcMMO.getUsersFilePath()).createNewFile();
+            journal.remove(folded);
         }
         catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void tryClose(Closeable c) {
+    /**
+     * Fold the save journal into the users files and close it, for when the
+     * server shuts down.
+     */
+    public void close() {
+        shardPool.shutdown();
+
+        if (journal == null) {
+            return;
+        }
+
+        compactJournal();
+        journal.close();
+    }
+
+    private static void tryClose(Closeable c) {
         if (c == null) {
             return;
         }
@@ -712,99 +876,430 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
         }
     }
 
-    private Integer getPlayerRank(String playerName, List<PlayerStat> statsList) {
-        if (statsList == null) {
-            return null;
+    private FlatfileShard getShard(String playerName) {
+        return shards[getShardIndex(playerName, shards.length)];
+    }
+
+    /**
+     * Split records by the shard they belong in.
+     *
+     * @param records The records to split, keyed by lowercase player name
+     * @return the records of every shard that has any, keyed by shard index
+     */
+    private Map<Integer, Map<String, String>> groupByShard(Map<String, String> records) {
+        Map<Integer, Map<String, String>> shardRecords = new HashMap<Integer, Map<String, String>>();
+
+        for (Map.Entry<String, String> entry : records.entrySet()) {
+            int index = getShardIndex(entry.getKey(), shards.length);
+            Map<String, String> group = shardRecords.get(index);
+
+            if (group == null) {
+                group = new LinkedHashMap<String, String>();
+                shardRecords.put(index, group);
+            }
+
+            group.put(entry.getKey(), entry.getValue());
+        }
+
+        return shardRecords;
+    }
+
+    private static int getShardIndex(String playerName, int shardCount) {
+        return (playerName.toLowerCase().hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+
+    /**
+     * Run a task on every shard, spread over a thread pool. Each shard is
+     * locked while its task runs.
+     *
+     * @return the player names returned by the tasks, from every shard whose
+     *         task did not fail
+     */
+    private List<String> processShards(final ShardTask task) {
+        List<String> playerNames = new ArrayList<String>();
+        List<Future<List<String>>> results = new ArrayList<Future<List<String>>>(shards.length);
+
+        for (final FlatfileShard shard : shards) {
+            results.add(shardPool.submit(new Callable<List<String>>() {
+                public List<String> call() {
+                    synchronized (shard.getLock()) {
+                        return task.run(shard);
+                    }
+                }
+            }));
         }
 
-        int currentPos = 1;
+        // A failed shard must not hide the names of the shards that already changed on disk
+        boolean interrupted = false;
+
+        for (int i = 0; i < results.size(); i++) {
+            Future<List<String>> result = results.get(i);
 
-        for (PlayerStat stat : statsList) {
-            if (stat.name.equalsIgnoreCase(playerName)) {
-                return currentPos;
+            while (true) {
+                try {
+                    playerNames.addAll(result.get());
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    mcMMO.p.getLogger().severe("Failed to process " + shards[i].getFile().getName() + ": " + e.getCause());
+                    e.getCause().printStackTrace();
+                    break;
+                }
             }
+        }
 
-            currentPos++;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
 
-        return null;
+        return playerNames;
     }
 
-    private int putStat(List<PlayerStat> statList, String playerName, int statValue) {
-        statList.add(new PlayerStat(playerName, statValue));
-        return statValue;
+    /**
+     * Remove the players without a single level from a shard.
+     * <p/>
+     * Must be called while holding the lock of the shard.
+     *
+     * @return the names of the removed players
+     */
+    private List<String> purgePowerlessUsers(FlatfileShard shard) {
+        List<String> purgedUsers = new ArrayList<String>();
+
+        FlatfileScanner in = null;
+        FlatfileWriter out = null;
+        File usersFile = shard.getFile();
+
+        // This code is O(n) instead of O(n²)
+        try {
+            in = new FlatfileScanner(usersFile);
+            out = new FlatfileWriter(usersFile);
+            FlatfileRecord record;
+
+            while ((record = in.nextRecord()) != null) {
+                boolean powerless = true;
+                for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+                    if (getSkillLevel(record, skill) != 0) {
+                        powerless = false;
+                        break;
+                    }
+                }
+
+                // If they're still around, rewrite them to the file.
+                if (!powerless) {
+                    out.write(record);
+                }
+                else {
+                    purgedUsers.add(record.getName());
+                }
+            }
+
+            // Write the new file
+            in.close();
+            out.commit();
+        }
+        catch (IOException e) {
+            mcMMO.p.getLogger().severe("Exception while reading " + usersFile.getPath() + " (Are you sure you formatted it correctly?)" + e.toString());
+            purgedUsers.clear();
+        }
+        finally {
+            tryClose(in);
+            tryClose(out);
+        }
+
+        shard.buildIndex();
+        return purgedUsers;
     }
 
-    private class SkillComparator implements Comparator<PlayerStat> {
-        @Override
-        public int compare(PlayerStat o1, PlayerStat o2) {
-            return (o2.statVal - o1.statVal);
+    /**
+     * Find the players of a shard whose last login was never recorded.
+     * <p/>
+     * Must be called while holding the lock of the shard.
+     *
+     * @return the names of the players
+     */
+    private List<String> findMissingLastLogins(FlatfileShard shard) {
+        List<String> playerNames = new ArrayList<String>();
+        FlatfileScanner in = null;
+
+        try {
+            in = new FlatfileScanner(shard.getFile());
+            FlatfileRecord record;
+
+            while ((record = in.nextRecord()) != null) {
+                if (readLastLogin(record) == 0) {
+                    playerNames.add(record.getName());
+                }
+            }
         }
+        catch (IOException e) {
+            mcMMO.p.getLogger().severe("Exception while reading " + shard.getFile().getPath() + " (Are you sure you formatted it correctly?)" + e.toString());
+        }
+        finally {
+            tryClose(in);
+        }
+
+        return playerNames;
     }
 
-    private PlayerProfile loadFromLine(String[] character) throws Exception {
-        Map<SkillType, Integer>   skills     = getSkillMapFromLine(character);      // Skill levels
+    /**
+     * Ask the server when the given players last played, with a single
+     * lookup of every player it knows.
+     *
+     * @param playerNames The names of the players
+     * @return the last login of every player in milliseconds, keyed by lowercase player name
+     */
+    private Map<String, Long> readMissingLastLogins(List<String> playerNames) {
+        Map<String, Long> lastPlayed = new HashMap<String, Long>();
+
+        if (playerNames.isEmpty()) {
+            return lastPlayed;
+        }
+
+        for (String playerName : playerNames) {
+            lastPlayed.put(playerName.toLowerCase(), 0L);
+        }
+
+        for (OfflinePlayer player : mcMMO.p.getServer().getOfflinePlayers()) {
+            String key = player.getName().toLowerCase();
+
+            if (lastPlayed.containsKey(key)) {
+                lastPlayed.put(key, player.getLastPlayed());
+            }
+        }
+
+        return lastPlayed;
+    }
+
+    /**
+     * Remove the players that haven't logged in for a while from a shard.
+     * <p/>
+     * Must be called while holding the lock of the shard.
+     *
+     * @param shard The shard to purge
+     * @param currentTime The time of the purge
+     * @param missingLastLogins The last logins of the players that have none recorded, see {@link #readMissingLastLogins(List)}
+     * @return the names of the removed players
+     */
+    private List<String> purgeOldUsers(FlatfileShard shard, long currentTime, Map<String, Long> missingLastLogins) {
+        List<String> removedPlayers = new ArrayList<String>();
+
+        FlatfileScanner in = null;
+        FlatfileWriter out = null;
+        File usersFile = shard.getFile();
+
+        // This code is O(n) instead of O(n²)
+        try {
+            in = new FlatfileScanner(usersFile);
+            out = new FlatfileWriter(usersFile);
+            FlatfileRecord record;
+
+            while ((record = in.nextRecord()) != null) {
+                String name = record.getName();
+                long lastPlayed = readLastLogin(record) * Misc.TIME_CONVERSION_FACTOR;
+                boolean rewrite = false;
+
+                if (lastPlayed == 0) {
+                    Long resolved = missingLastLogins.get(name.toLowerCase());
+
+                    lastPlayed = resolved == null ? 0 : resolved;
+                    rewrite = true;
+                }
+
+                if (currentTime - lastPlayed > PURGE_TIME) {
+                    removedPlayers.add(name);
+                }
+                else if (rewrite) {
+                    // Rewrite their data with a valid time
+                    String[] character = record.toString().split(":");
+                    character[FIELD_LAST_LOGIN] = Long.toString(lastPlayed);
+                    String newLine = org.apache.commons.lang.StringUtils.join(character, ":") + ":";
+                    out.write(FlatfileShard.padRecord(newLine));
+                }
+                else {
+                    out.write(record);
+                }
+            }
+
+            // Write the new file
+            in.close();
+            out.commit();
+        }
+        catch (IOException e) {
+            mcMMO.p.getLogger().severe("Exception while reading " + usersFile.getPath() + " (Are you sure you formatted it correctly?)" + e.toString());
+            removedPlayers.clear();
+        }
+        finally {
+            tryClose(in);
+            tryClose(out);
+        }
+
+        shard.buildIndex();
+        return removedPlayers;
+    }
+
+    private long readLastLogin(FlatfileRecord record) {
+        try {
+            return record.getLong(FIELD_LAST_LOGIN);
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private String writeRecord(ProfileSnapshot profile) {
+        StringBuilder writer = new StringBuilder();
+
+        writer.append(profile.getPlayerName()).append(":");
+        writer.append(profile.getSkillLevel(SkillType.MINING)).append(":");
+        writer.append(":");
+        writer.append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.MINING)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.WOODCUTTING)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.WOODCUTTING)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.REPAIR)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.UNARMED)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.HERBALISM)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.EXCAVATION)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.ARCHERY)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.SWORDS)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.AXES)).append(":");
+        writer.append(profile.getSkillLevel(SkillType.ACROBATICS)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.REPAIR)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.UNARMED)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.HERBALISM)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.EXCAVATION)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.ARCHERY)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.SWORDS)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.AXES)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.ACROBATICS)).append(":");
+        writer.append(":");
+        writer.append(profile.getSkillLevel(SkillType.TAMING)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.TAMING)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.BERSERK)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.GIGA_DRILL_BREAKER)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.TREE_FELLER)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.GREEN_TERRA)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.SERRATED_STRIKES)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.SKULL_SPLITTER)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.SUPER_BREAKER)).append(":");
+        writer.append(":");
+        writer.append(profile.getSkillLevel(SkillType.FISHING)).append(":");
+        writer.append(profile.getSkillXpLevel(SkillType.FISHING)).append(":");
+        writer.append((int) profile.getSkillDATS(AbilityType.BLAST_MINING)).append(":");
+        writer.append(System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR).append(":");
+        MobHealthbarType mobHealthbarType = profile.getMobHealthbarType();
+        writer.append(mobHealthbarType == null ? Config.getInstance().getMobHealthbarDefault().toString() : mobHealthbarType.toString()).append(":");
+
+        return writer.toString();
+    }
+
+    private interface ShardTask {
+        /**
+         * @return the names of the players the task picked out, such as the removed ones
+         */
+        List<String> run(FlatfileShard shard);
+    }
+
+    private static PlayerProfile loadFromRecord(FlatfileRecord record) {
+        Map<SkillType, Integer>   skills     = getSkillMapFromRecord(record);       // Skill levels
         Map<SkillType, Float>     skillsXp   = new HashMap<SkillType, Float>();     // Skill & XP
         Map<AbilityType, Integer> skillsDATS = new HashMap<AbilityType, Integer>(); // Ability & Cooldown
         MobHealthbarType mobHealthbarType;
 
         // TODO on updates, put new values in a try{} ?
 
-        skillsXp.put(SkillType.TAMING, (float) Integer.valueOf(character[25]));
-        skillsXp.put(SkillType.MINING, (float) Integer.valueOf(character[4]));
-        skillsXp.put(SkillType.REPAIR, (float) Integer.valueOf(character[15]));
-        skillsXp.put(SkillType.WOODCUTTING, (float) Integer.valueOf(character[6]));
-        skillsXp.put(SkillType.UNARMED, (float) Integer.valueOf(character[16]));
-        skillsXp.put(SkillType.HERBALISM, (float) Integer.valueOf(character[17]));
-        skillsXp.put(SkillType.EXCAVATION, (float) Integer.valueOf(character[18]));
-        skillsXp.put(SkillType.ARCHERY, (float) Integer.valueOf(character[19]));
-        skillsXp.put(SkillType.SWORDS, (float) Integer.valueOf(character[20]));
-        skillsXp.put(SkillType.AXES, (float) Integer.valueOf(character[21]));
-        skillsXp.put(SkillType.ACROBATICS, (float) Integer.valueOf(character[22]));
-        skillsXp.put(SkillType.FISHING, (float) Integer.valueOf(character[35]));
+        skillsXp.put(SkillType.TAMING, (float) record.getInt(25));
+        skillsXp.put(SkillType.MINING, (float) record.getInt(4));
+        skillsXp.put(SkillType.REPAIR, (float) record.getInt(15));
+        skillsXp.put(SkillType.WOODCUTTING, (float) record.getInt(6));
+        skillsXp.put(SkillType.UNARMED, (float) record.getInt(16));
+        skillsXp.put(SkillType.HERBALISM, (float) record.getInt(17));
+        skillsXp.put(SkillType.EXCAVATION, (float) record.getInt(18));
+        skillsXp.put(SkillType.ARCHERY, (float) record.getInt(19));
+        skillsXp.put(SkillType.SWORDS, (float) record.getInt(20));
+        skillsXp.put(SkillType.AXES, (float) record.getInt(21));
+        skillsXp.put(SkillType.ACROBATICS, (float) record.getInt(22));
+        skillsXp.put(SkillType.FISHING, (float) record.getInt(35));
 
         // Taming - Unused
-        skillsDATS.put(AbilityType.SUPER_BREAKER, Integer.valueOf(character[32]));
+        skillsDATS.put(AbilityType.SUPER_BREAKER, record.getInt(32));
         // Repair - Unused
-        skillsDATS.put(AbilityType.TREE_FELLER, Integer.valueOf(character[28]));
-        skillsDATS.put(AbilityType.BERSERK, Integer.valueOf(character[26]));
-        skillsDATS.put(AbilityType.GREEN_TERRA, Integer.valueOf(character[29]));
-        skillsDATS.put(AbilityType.GIGA_DRILL_BREAKER, Integer.valueOf(character[27]));
+        skillsDATS.put(AbilityType.TREE_FELLER, record.getInt(28));
+        skillsDATS.put(AbilityType.BERSERK, record.getInt(26));
+        skillsDATS.put(AbilityType.GREEN_TERRA, record.getInt(29));
+        skillsDATS.put(AbilityType.GIGA_DRILL_BREAKER, record.getInt(27));
         // Archery - Unused
-        skillsDATS.put(AbilityType.SERRATED_STRIKES, Integer.valueOf(character[30]));
-        skillsDATS.put(AbilityType.SKULL_SPLITTER, Integer.valueOf(character[31]));
+        skillsDATS.put(AbilityType.SERRATED_STRIKES, record.getInt(30));
+        skillsDATS.put(AbilityType.SKULL_SPLITTER, record.getInt(31));
         // Acrobatics - Unused
-        skillsDATS.put(AbilityType.BLAST_MINING, Integer.valueOf(character[36]));
+        skillsDATS.put(AbilityType.BLAST_MINING, record.getInt(36));
 
         try {
-            mobHealthbarType = MobHealthbarType.valueOf(character[38]);
+            mobHealthbarType = MobHealthbarType.valueOf(record.getString(FIELD_MOB_HEALTHBAR));
         }
         catch (Exception e) {
             mobHealthbarType = Config.getInstance().getMobHealthbarDefault();
         }
 
-        return new PlayerProfile(character[0], skills, skillsXp, skillsDATS, mobHealthbarType);
+        return new PlayerProfile(record.getName(), skills, skillsXp, skillsDATS, mobHealthbarType);
     }
 
-    private Map<SkillType, Integer> getSkillMapFromLine(String[] character) {
+    private static Map<SkillType, Integer> getSkillMapFromRecord(FlatfileRecord record) {
         Map<SkillType, Integer> skills = new HashMap<SkillType, Integer>();   // Skill & Level
 
-        skills.put(SkillType.TAMING, Integer.valueOf(character[24]));
-        skills.put(SkillType.MINING, Integer.valueOf(character[1]));
-        skills.put(SkillType.REPAIR, Integer.valueOf(character[7]));
-        skills.put(SkillType.WOODCUTTING, Integer.valueOf(character[5]));
-        skills.put(SkillType.UNARMED, Integer.valueOf(character[8]));
-        skills.put(SkillType.HERBALISM, Integer.valueOf(character[9]));
-        skills.put(SkillType.EXCAVATION, Integer.valueOf(character[10]));
-        skills.put(SkillType.ARCHERY, Integer.valueOf(character[11]));
-        skills.put(SkillType.SWORDS, Integer.valueOf(character[12]));
-        skills.put(SkillType.AXES, Integer.valueOf(character[13]));
-        skills.put(SkillType.ACROBATICS, Integer.valueOf(character[14]));
-        skills.put(SkillType.FISHING, Integer.valueOf(character[34]));
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skills.put(skill, getSkillLevel(record, skill));
+        }
 
         return skills;
     }
 
+    private static int getSkillLevel(FlatfileRecord record, SkillType skill) {
+        switch (skill) {
+            case ACROBATICS:
+                return record.getInt(14);
+
+            case ARCHERY:
+                return record.getInt(11);
+
+            case AXES:
+                return record.getInt(13);
+
+            case EXCAVATION:
+                return record.getInt(10);
+
+            case FISHING:
+                return record.getInt(34);
+
+            case HERBALISM:
+                return record.getInt(9);
+
+            case MINING:
+                return record.getInt(1);
+
+            case REPAIR:
+                return record.getInt(7);
+
+            case SWORDS:
+                return record.getInt(12);
+
+            case TAMING:
+                return record.getInt(24);
+
+            case UNARMED:
+                return record.getInt(8);
+
+            case WOODCUTTING:
+                return record.getInt(5);
+
+            default:
+                throw new IllegalArgumentException("No level stored for " + skill);
+        }
+    }
+
     public DatabaseType getDatabaseType() {
         return DatabaseType.FLATFILE;
     }
@@ -0,0 +1,298 @@
+package com.gmail.nossr50.database;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.gmail.nossr50.mcMMO;
+
+/**
+ * Append-only log of flatfile profile saves.
+ * <p/>
+ * Every save is appended to the journal as a single line holding the CRC32
+ * of the record followed by the record itself, so saving a profile never has
+ * to touch the users file. Appends are synced to disk before they return,
+ * so a save that was reported as done survives the machine going down. The
+ * latest record of every player is kept in memory until the journal is
+ * compacted into the users file. Lines that were only partially written when
+ * the server went down fail their checksum and are skipped on recovery. An
+ * append that fails is cut back off the file, so the next one doesn't get
+ * glued onto a torn line.
+ */
+class FlatfileJournal {
+    private final File journalFile;
+    private FileOutputStream out;
+
+    // Set when a failed append couldn't be cut off, so the next one has to start on a new line
+    private boolean tornTail = false;
+
+    // Latest record of every journaled player, keyed by lowercase player name
+    private final Map<String, String> pending = new LinkedHashMap<String, String>();
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    FlatfileJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Append a record to the journal.
+     *
+     * @param playerName The name of the player the record belongs to
+     * @param record The record to append
+     * @throws IOException if the journal could not be written
+     */
+    synchronized void append(String playerName, String record) throws IOException {
+        append(Collections.singletonMap(playerName.toLowerCase(), record));
+    }
+
+    /**
+     * Append several records to the journal, syncing it to disk once.
+     *
+     * @param records The records to append, keyed by lowercase player name
+     * @throws IOException if the journal could not be written
+     */
+    synchronized void append(Map<String, String> records) throws IOException {
+        if (out == null) {
+            out = new FileOutputStream(journalFile, true);
+        }
+
+        long length = out.getChannel().size();
+
+        try {
+            if (tornTail) {
+                out.write('\n');
+                tornTail = false;
+            }
+
+            for (String record : records.values()) {
+                out.write(toLine(record));
+            }
+
+            out.flush();
+            out.getFD().sync();
+        }
+        catch (IOException e) {
+            cutTornTail(length);
+            throw e;
+        }
+
+        pending.putAll(records);
+    }
+
+    /**
+     * Remove what a failed append left at the end of the journal. If that
+     * fails too, the journal is reopened and the next append starts with a
+     * new line instead.
+     *
+     * @param length The length of the journal before the append
+     */
+    private void cutTornTail(long length) {
+        try {
+            out.getChannel().truncate(length);
+        }
+        catch (IOException e) {
+            tryClose(out);
+            out = null;
+            tornTail = true;
+        }
+    }
+
+    /**
+     * Get the latest journaled record of a player.
+     *
+     * @param playerName The name of the player
+     * @return the record, or null if the player has nothing journaled
+     */
+    synchronized String getRecord(String playerName) {
+        return pending.get(playerName.toLowerCase());
+    }
+
+    synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Get the latest record of every journaled player.
+     *
+     * @return the journaled records, keyed by lowercase player name
+     */
+    synchronized Map<String, String> getRecords() {
+        return new LinkedHashMap<String, String>(pending);
+    }
+
+    /**
+     * Get the records that are still the latest of their player, leaving out
+     * those that were saved again or discarded since they were read.
+     *
+     * @param records Records from {@link #getRecords()}, keyed by lowercase player name
+     * @return the records that are still current
+     */
+    synchronized Map<String, String> getCurrent(Map<String, String> records) {
+        Map<String, String> current = new LinkedHashMap<String, String>();
+
+        for (Map.Entry<String, String> entry : records.entrySet()) {
+            if (pending.get(entry.getKey()) == entry.getValue()) {
+                current.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Forget the journaled record of a player who is being removed, so it
+     * can't bring them back.
+     *
+     * @param playerName The name of the player
+     * @throws IOException if the journal could not be rewritten
+     */
+    synchronized void discard(String playerName) throws IOException {
+        if (pending.remove(playerName.toLowerCase()) != null) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Read back the records left in the journal file by a previous run.
+     */
+    synchronized void recover() {
+        pending.clear();
+
+        if (!journalFile.exists()) {
+            return;
+        }
+
+        BufferedReader in = null;
+        int skipped = 0;
+
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), CHARSET));
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                // Left after a torn line that couldn't be cut off
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                int split = line.indexOf(' ');
+
+                if (split != 8) {
+                    skipped++;
+                    continue;
+                }
+
+                String record = line.substring(split + 1);
+                CRC32 crc = new CRC32();
+                crc.update(record.getBytes(CHARSET));
+
+                if (!String.format("%08x", crc.getValue()).equals(line.substring(0, split))) {
+                    skipped++;
+                    continue;
+                }
+
+                pending.put(record.split(":")[0].toLowerCase(), record);
+            }
+        }
+        catch (IOException e) {
+            mcMMO.p.getLogger().severe("Exception while reading " + journalFile.getPath() + " " + e.toString());
+        }
+        finally {
+            tryClose(in);
+        }
+
+        if (skipped > 0) {
+            mcMMO.p.getLogger().warning("Skipped " + skipped + " damaged entries in " + journalFile.getPath());
+        }
+    }
+
+    /**
+     * Drop the records that made it into the users files. Records that were
+     * saved again in the meantime are kept.
+     *
+     * @param records The records that were folded into the users files, keyed by lowercase player name
+     * @throws IOException if the journal could not be rewritten
+     */
+    synchronized void remove(Map<String, String> records) throws IOException {
+        for (Map.Entry<String, String> entry : records.entrySet()) {
+            if (pending.get(entry.getKey()) == entry.getValue()) {
+                pending.remove(entry.getKey());
+            }
+        }
+
+        rewrite();
+    }
+
+    /**
+     * Replace the journal file with the records that are still pending.
+     */
+    private void rewrite() throws IOException {
+        tryClose(out);
+        out = null;
+
+        if (pending.isEmpty()) {
+            out = new FileOutputStream(journalFile, false);
+            tornTail = false;
+            return;
+        }
+
+        // Write what is left to a new journal, so that a crash can't lose it
+        File newJournal = new File(journalFile.getPath() + ".tmp");
+        FileOutputStream writer = new FileOutputStream(newJournal, false);
+
+        try {
+            for (String record : pending.values()) {
+                writer.write(toLine(record));
+            }
+
+            writer.getFD().sync();
+        }
+        finally {
+            tryClose(writer);
+        }
+
+        if (!newJournal.renameTo(journalFile)) {
+            journalFile.delete();
+
+            if (!newJournal.renameTo(journalFile)) {
+                throw new IOException("Could not replace " + journalFile.getPath());
+            }
+        }
+
+        tornTail = false;
+    }
+
+    synchronized void close() {
+        tryClose(out);
+        out = null;
+    }
+
+    private byte[] toLine(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(CHARSET));
+
+        return (String.format("%08x ", crc.getValue()) + record + "\n").getBytes(CHARSET);
+    }
+
+    private void tryClose(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
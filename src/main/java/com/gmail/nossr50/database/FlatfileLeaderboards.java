@@ -0,0 +1,148 @@
+package com.gmail.nossr50.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gmail.nossr50.datatypes.database.PlayerStat;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+
+/**
+ * Leaderboards of the flatfile databases.
+ * <p/>
+ * The boards are filled once when the database starts, then kept up to date
+ * by every save and removal, so they never need to be rebuilt.
+ */
+class FlatfileLeaderboards {
+    private final Map<SkillType, LeaderboardTree> skillBoards = new HashMap<SkillType, LeaderboardTree>();
+    private final LeaderboardTree powerLevels = new LeaderboardTree();
+
+    // Levels of every player on the boards, keyed by lowercase player name
+    private final Map<String, Entry> players = new HashMap<String, Entry>();
+
+    FlatfileLeaderboards() {
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skillBoards.put(skill, new LeaderboardTree());
+        }
+    }
+
+    synchronized boolean contains(String playerName) {
+        return players.containsKey(playerName.toLowerCase());
+    }
+
+    /**
+     * Put a player on the boards, or move them to their new positions.
+     *
+     * @param playerName The name of the player
+     * @param levels The level of every skill, in the order of {@link SkillType#NON_CHILD_SKILLS}
+     */
+    synchronized void update(String playerName, int[] levels) {
+        String key = playerName.toLowerCase();
+        Entry entry = players.get(key);
+
+        if (entry != null) {
+            if (entry.name.equals(playerName) && Arrays.equals(entry.levels, levels)) {
+                return;
+            }
+
+            removeEntry(entry);
+        }
+
+        entry = new Entry(playerName, levels.clone());
+        players.put(key, entry);
+
+        for (int i = 0; i < levels.length; i++) {
+            skillBoards.get(SkillType.NON_CHILD_SKILLS.get(i)).add(playerName, levels[i]);
+        }
+
+        powerLevels.add(playerName, entry.powerLevel);
+    }
+
+    synchronized void update(ProfileSnapshot profile) {
+        update(profile.getPlayerName(), getLevels(profile));
+    }
+
+    synchronized void remove(String playerName) {
+        Entry entry = players.remove(playerName.toLowerCase());
+
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    synchronized List<PlayerStat> readLeaderboard(String skillName, int pageNumber, int statsPerPage) {
+        LeaderboardTree board = skillName.equalsIgnoreCase("all") ? powerLevels : skillBoards.get(SkillType.getSkill(skillName));
+
+        if (board == null) {
+            return new ArrayList<PlayerStat>();
+        }
+
+        return board.getRange((Math.max(pageNumber, 1) - 1) * statsPerPage, statsPerPage);
+    }
+
+    synchronized Map<String, Integer> readRank(String playerName) {
+        Map<String, Integer> skills = new HashMap<String, Integer>();
+        Entry entry = players.get(playerName.toLowerCase());
+
+        // Not on the boards, so not ranked anywhere
+        if (entry == null) {
+            for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+                skills.put(skill.name(), null);
+            }
+
+            skills.put("ALL", null);
+            return skills;
+        }
+
+        // The stored levels tell exactly where the player sits on every board
+        for (int i = 0; i < entry.levels.length; i++) {
+            SkillType skill = SkillType.NON_CHILD_SKILLS.get(i);
+
+            skills.put(skill.name(), skillBoards.get(skill).getRank(entry.name, entry.levels[i]));
+        }
+
+        skills.put("ALL", powerLevels.getRank(entry.name, entry.powerLevel));
+
+        return skills;
+    }
+
+    static int[] getLevels(ProfileSnapshot profile) {
+        int[] levels = new int[SkillType.NON_CHILD_SKILLS.size()];
+
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = profile.getSkillLevel(SkillType.NON_CHILD_SKILLS.get(i));
+        }
+
+        return levels;
+    }
+
+    private void removeEntry(Entry entry) {
+        for (int i = 0; i < entry.levels.length; i++) {
+            skillBoards.get(SkillType.NON_CHILD_SKILLS.get(i)).remove(entry.name, entry.levels[i]);
+        }
+
+        powerLevels.remove(entry.name, entry.powerLevel);
+    }
+
+    private static class Entry {
+        private final String name;
+        private final int[] levels;
+        private final int powerLevel;
+
+        private Entry(String name, int[] levels) {
+            this.name = name;
+            this.levels = levels;
+
+            int total = 0;
+
+            for (int level : levels) {
+                total += level;
+            }
+
+            this.powerLevel = total;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.gmail.nossr50.database;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * View over a single line of the users file.
+ * <p/>
+ * Field boundaries are located once when the record is reset, and fields are
+ * then parsed straight out of the underlying bytes, so reading a numeric field
+ * never allocates. Field numbering follows {@link String#split(String)} on
+ * ":", so trailing empty fields are dropped.
+ */
+final class FlatfileRecord {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private byte[] data;
+    private int start;
+    private int end;
+
+    private int[] fieldStarts = new int[64];
+    private int[] fieldEnds = new int[64];
+    private int fieldCount;
+
+    /**
+     * Create a record from a line of text.
+     *
+     * @param line The line, without its line break
+     * @return the parsed record
+     */
+    static FlatfileRecord parse(String line) {
+        byte[] bytes = line.getBytes(CHARSET);
+        FlatfileRecord record = new FlatfileRecord();
+
+        record.reset(bytes, 0, bytes.length);
+        return record;
+    }
+
+    /**
+     * Point this record at a new line.
+     *
+     * @param data The buffer holding the line
+     * @param start The offset of the first byte of the line
+     * @param end The offset just past the last byte of the line, line break excluded
+     */
+    void reset(byte[] data, int start, int end) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+        fieldCount = 0;
+
+        int fieldStart = start;
+
+        for (int i = start; i < end; i++) {
+            if (data[i] == ':') {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+
+        addField(fieldStart, end);
+
+        // Like String.split(), drop the trailing empty fields
+        while (fieldCount > 0 && fieldStarts[fieldCount - 1] == fieldEnds[fieldCount - 1]) {
+            fieldCount--;
+        }
+    }
+
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    String getName() {
+        return getString(0);
+    }
+
+    String getString(int field) {
+        checkField(field);
+        return new String(data, fieldStarts[field], fieldEnds[field] - fieldStarts[field], CHARSET);
+    }
+
+    /**
+     * Parse a field as an int, with the same rules as {@link Integer#parseInt(String)}.
+     */
+    int getInt(int field) {
+        long value = getLong(field);
+
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw invalidNumber(field);
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * Parse a field as a long, with the same rules as {@link Long#parseLong(String)}.
+     */
+    long getLong(int field) {
+        checkField(field);
+
+        int i = fieldStarts[field];
+        int fieldEnd = fieldEnds[field];
+        boolean negative = false;
+
+        if (i < fieldEnd && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+
+        if (i == fieldEnd) {
+            throw invalidNumber(field);
+        }
+
+        long value = 0;
+
+        for (; i < fieldEnd; i++) {
+            int digit = data[i] - '0';
+
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw invalidNumber(field);
+            }
+
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Write the whole line, without its line break.
+     */
+    void writeTo(FlatfileWriter out) throws IOException {
+        out.write(data, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(data, start, end - start, CHARSET);
+    }
+
+    private void addField(int fieldStart, int fieldEnd) {
+        if (fieldCount == fieldStarts.length) {
+            int[] starts = new int[fieldCount * 2];
+            int[] ends = new int[fieldCount * 2];
+
+            System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+            fieldStarts = starts;
+            fieldEnds = ends;
+        }
+
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = fieldEnd;
+        fieldCount++;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new ArrayIndexOutOfBoundsException(field);
+        }
+    }
+
+    private NumberFormatException invalidNumber(int field) {
+        return new NumberFormatException("For input string: \"" + getString(field) + "\"");
+    }
+}
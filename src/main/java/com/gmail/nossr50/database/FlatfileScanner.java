@@ -0,0 +1,123 @@
+package com.gmail.nossr50.database;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the users file one {@link FlatfileRecord} at a time.
+ * <p/>
+ * The file is read through its FileChannel in large blocks into a single
+ * reusable buffer, and every record is a view over that buffer. The record
+ * returned by {@link #nextRecord()} is only valid until the next call, so
+ * anything that has to outlive it must be copied out.
+ * <p/>
+ * The file is deliberately not memory-mapped: a mapping cannot be released
+ * explicitly and keeps the file locked on Windows, which would break the
+ * rewrites that follow most scans.
+ */
+class FlatfileScanner implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileInputStream in;
+    private final FileChannel channel;
+    private final FlatfileRecord record = new FlatfileRecord();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int lineStart = 0; // Start of the first unread line in the buffer
+    private int scanned = 0;   // Everything before this was checked for line breaks
+    private int limit = 0;     // End of the data in the buffer
+    private boolean eof = false;
+
+    FlatfileScanner(File file) throws FileNotFoundException {
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+    }
+
+    /**
+     * Read the next non-empty line of the file.
+     *
+     * @return the next record, or null at the end of the file
+     * @throws IOException if the file could not be read
+     */
+    FlatfileRecord nextRecord() throws IOException {
+        while (true) {
+            byte[] data = buffer.array();
+
+            for (; scanned < limit; scanned++) {
+                if (data[scanned] != '\n') {
+                    continue;
+                }
+
+                int start = lineStart;
+                int end = scanned;
+                lineStart = scanned + 1;
+
+                if (setRecord(data, start, end)) {
+                    scanned++;
+                    return record;
+                }
+            }
+
+            if (eof) {
+                // Last line without a line break
+                int start = lineStart;
+                lineStart = limit;
+
+                return setRecord(data, start, limit) ? record : null;
+            }
+
+            fill();
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean setRecord(byte[] data, int start, int end) {
+        if (end > start && data[end - 1] == '\r') {
+            end--;
+        }
+
+        if (end == start) {
+            return false;
+        }
+
+        record.reset(data, start, end);
+        return true;
+    }
+
+    /**
+     * Move the unread part of the buffer to the front and read more data
+     * after it, growing the buffer if a single line does not fit.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - lineStart;
+
+        if (remaining == buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+
+            larger.put(buffer.array(), lineStart, remaining);
+            buffer = larger;
+        }
+        else {
+            System.arraycopy(buffer.array(), lineStart, buffer.array(), 0, remaining);
+            buffer.clear();
+            buffer.position(remaining);
+        }
+
+        scanned -= lineStart;
+        lineStart = 0;
+
+        if (channel.read(buffer) == -1) {
+            eof = true;
+        }
+
+        limit = buffer.position();
+    }
+}
@@ -0,0 +1,378 @@
+package com.gmail.nossr50.database;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.gmail.nossr50.mcMMO;
+
+/**
+ * One file of the flatfile database, along with the index of the records
+ * it holds.
+ * <p/>
+ * Every shard has its own lock, shared by all database instances that use
+ * the same file. Unless stated otherwise, the methods of this class must be
+ * called while holding it.
+ */
+class FlatfileShard {
+    private static final Map<String, Object> locks = new HashMap<String, Object>();
+
+    // Extra bytes reserved after each record so that saves can overwrite it in place
+    static final int RECORD_PADDING = 32;
+    static final Charset CHARSET = Charset.forName("UTF-8");
+    static final byte[] LINE_BREAK = "\r\n".getBytes(CHARSET);
+
+    private final File file;
+    private final Object lock;
+
+    // Byte offset and length of every record, keyed by lowercase player name
+    private final Map<String, RecordSlot> recordIndex = new HashMap<String, RecordSlot>();
+    // Length of the file when the index was last known to be accurate
+    private long indexedLength = -1;
+
+    FlatfileShard(File file) {
+        this.file = file;
+        this.lock = getLock(file);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the lock guarding this shard. May be called without holding it.
+     */
+    Object getLock() {
+        return lock;
+    }
+
+    /**
+     * Read the record of a player.
+     *
+     * @param playerName The name of the player
+     * @return the record, or null if the player has no record
+     * @throws IOException if the file could not be read
+     */
+    String loadRecord(String playerName) throws IOException {
+        RandomAccessFile in = null;
+
+        try {
+            in = new RandomAccessFile(file, "r");
+            RecordSlot slot = findRecordSlot(in, playerName);
+
+            return slot == null ? null : readRecord(in, slot);
+        }
+        finally {
+            tryClose(in);
+        }
+    }
+
+    boolean hasRecord(String playerName) throws IOException {
+        RandomAccessFile in = null;
+
+        try {
+            in = new RandomAccessFile(file, "r");
+            return findRecordSlot(in, playerName) != null;
+        }
+        finally {
+            tryClose(in);
+        }
+    }
+
+    /**
+     * Store the records of several players. Records that fit in their slots
+     * are overwritten in place, the file is rewritten at most once for the
+     * rest.
+     *
+     * @param records The records to store, keyed by lowercase player name
+     * @return true if every record was stored
+     * @throws IOException if the file could not be written
+     */
+    boolean saveRecords(Map<String, String> records) throws IOException {
+        Map<String, String> overflow = new HashMap<String, String>();
+        RandomAccessFile out = null;
+
+        try {
+            out = new RandomAccessFile(file, "rw");
+
+            for (Map.Entry<String, String> entry : records.entrySet()) {
+                RecordSlot slot = findRecordSlot(out, entry.getKey());
+
+                // Not in the file yet, add them to the end
+                if (slot == null) {
+                    appendRecord(out, entry.getKey(), entry.getValue());
+                    continue;
+                }
+
+                byte[] data = entry.getValue().getBytes(CHARSET);
+
+                // The record outgrew its slot, so the file has to be rewritten around it
+                if (data.length > slot.length) {
+                    overflow.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+
+                // Otherwise overwrite the player's slot in place
+                out.seek(slot.offset);
+                out.write(padRecord(data, slot.length));
+            }
+        }
+        finally {
+            tryClose(out);
+        }
+
+        return overflow.isEmpty() || rewriteRecords(overflow);
+    }
+
+    /**
+     * Add a record to the end of the file, without looking for an existing one.
+     */
+    void addRecord(String playerName, String record) throws IOException {
+        RandomAccessFile out = null;
+
+        try {
+            out = new RandomAccessFile(file, "rw");
+            checkIndex(out);
+            appendRecord(out, playerName, record);
+        }
+        finally {
+            tryClose(out);
+        }
+    }
+
+    /**
+     * Rebuild the record index from the file.
+     */
+    void buildIndex() {
+        recordIndex.clear();
+        indexedLength = -1;
+
+        BufferedInputStream in = null;
+
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            ByteArrayOutputStream name = new ByteArrayOutputStream(16);
+            boolean readingName = true;
+            long position = 0;
+            long lineStart = 0;
+            int previous = -1;
+            int b;
+
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    if (!readingName) {
+                        addToIndex(name, lineStart, position - lineStart - (previous == '\r' ? 1 : 0));
+                    }
+
+                    name.reset();
+                    readingName = true;
+                    lineStart = position + 1;
+                }
+                else if (readingName) {
+                    if (b == ':') {
+                        readingName = false;
+                    }
+                    else if (b != '\r') {
+                        name.write(b);
+                    }
+                }
+
+                previous = b;
+                position++;
+            }
+
+            // Last line without a line break
+            if (!readingName) {
+                addToIndex(name, lineStart, position - lineStart);
+            }
+
+            indexedLength = position;
+        }
+        catch (IOException e) {
+            mcMMO.p.getLogger().severe("Exception while indexing " + file.getPath() + " " + e.toString());
+        }
+        finally {
+            tryClose(in);
+        }
+    }
+
+    private void addToIndex(ByteArrayOutputStream name, long offset, long length) {
+        String key = new String(name.toByteArray(), CHARSET).toLowerCase();
+
+        // Like a full scan, the first record of a player wins
+        if (!recordIndex.containsKey(key)) {
+            recordIndex.put(key, new RecordSlot(offset, (int) length));
+        }
+    }
+
+    /**
+     * Rebuild the index if the file was changed behind our back.
+     */
+    private void checkIndex(RandomAccessFile in) throws IOException {
+        if (in.length() != indexedLength) {
+            buildIndex();
+        }
+    }
+
+    /**
+     * Find the slot holding the record of a player.
+     *
+     * @param in The open file
+     * @param playerName The name of the player to look for
+     * @return the slot of the player, or null if the player has no record
+     */
+    private RecordSlot findRecordSlot(RandomAccessFile in, String playerName) throws IOException {
+        checkIndex(in);
+
+        RecordSlot slot = recordIndex.get(playerName.toLowerCase());
+
+        if (slot == null || readRecord(in, slot).split(":")[0].equalsIgnoreCase(playerName)) {
+            return slot;
+        }
+
+        // Stale index, rebuild it and try again
+        buildIndex();
+        return recordIndex.get(playerName.toLowerCase());
+    }
+
+    private String readRecord(RandomAccessFile in, RecordSlot slot) throws IOException {
+        byte[] data = new byte[slot.length];
+
+        in.seek(slot.offset);
+        in.readFully(data);
+        return new String(data, CHARSET);
+    }
+
+    private void appendRecord(RandomAccessFile out, String playerName, String record) throws IOException {
+        byte[] data = (padRecord(record) + "\r\n").getBytes(CHARSET);
+        long offset = out.length();
+
+        out.seek(offset);
+        out.write(data);
+
+        String key = playerName.toLowerCase();
+
+        if (!recordIndex.containsKey(key)) {
+            recordIndex.put(key, new RecordSlot(offset, data.length - 2));
+        }
+
+        indexedLength = offset + data.length;
+    }
+
+    /**
+     * Rewrite the whole file with new records for some players. Only needed
+     * when the records no longer fit in their slots.
+     *
+     * @param records The new records, keyed by lowercase player name
+     */
+    private boolean rewriteRecords(Map<String, String> records) {
+        FlatfileScanner in = null;
+        FlatfileWriter out = null;
+
+        try {
+            in = new FlatfileScanner(file);
+            out = new FlatfileWriter(file);
+            FlatfileRecord line;
+
+            while ((line = in.nextRecord()) != null) {
+                String record = records.get(line.getName().toLowerCase());
+
+                if (record == null) {
+                    out.write(line);
+                }
+                else {
+                    out.write(padRecord(record));
+                }
+            }
+
+            in.close();
+            out.commit();
+            return true;
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            tryClose(in);
+            tryClose(out);
+            buildIndex();
+        }
+    }
+
+    /**
+     * Reserve room after a record. The padding is made of empty fields,
+     * which String.split() drops, so readers never see it.
+     */
+    static String padRecord(String record) {
+        StringBuilder padded = new StringBuilder(record.length() + RECORD_PADDING).append(record);
+
+        for (int i = 0; i < RECORD_PADDING; i++) {
+            padded.append(':');
+        }
+
+        return padded.toString();
+    }
+
+    static String stripPadding(String line) {
+        int end = line.length();
+
+        while (end > 1 && line.charAt(end - 1) == ':' && line.charAt(end - 2) == ':') {
+            end--;
+        }
+
+        return line.substring(0, end);
+    }
+
+    private static byte[] padRecord(byte[] data, int length) {
+        byte[] padded = Arrays.copyOf(data, length);
+
+        Arrays.fill(padded, data.length, length, (byte) ':');
+        return padded;
+    }
+
+    private static Object getLock(File file) {
+        String key = file.getAbsolutePath();
+
+        synchronized (locks) {
+            Object lock = locks.get(key);
+
+            if (lock == null) {
+                lock = new Object();
+                locks.put(key, lock);
+            }
+
+            return lock;
+        }
+    }
+
+    private static void tryClose(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class RecordSlot {
+        private final long offset;
+        private final int length;
+
+        private RecordSlot(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.gmail.nossr50.database;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a new version of a users file one line at a time.
+ * <p/>
+ * Lines are gathered in a fixed buffer and streamed through a FileChannel
+ * into a temporary file next to the original, which is only replaced once
+ * {@link #commit()} was called and everything reached the disk. Closing the
+ * writer without committing throws the temporary file away, so a failure
+ * halfway through a rewrite leaves the original file untouched.
+ */
+class FlatfileWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final File tempFile;
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private boolean closed = false;
+
+    FlatfileWriter(File file) throws IOException {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+
+        out = new FileOutputStream(tempFile);
+        channel = out.getChannel();
+    }
+
+    /**
+     * Write a record as it was read, followed by a line break.
+     */
+    void write(FlatfileRecord record) throws IOException {
+        record.writeTo(this);
+        write(FlatfileShard.LINE_BREAK, 0, FlatfileShard.LINE_BREAK.length);
+    }
+
+    /**
+     * Write a line of text, followed by a line break.
+     */
+    void write(String line) throws IOException {
+        byte[] data = line.getBytes(FlatfileShard.CHARSET);
+
+        write(data, 0, data.length);
+        write(FlatfileShard.LINE_BREAK, 0, FlatfileShard.LINE_BREAK.length);
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        if (length > buffer.remaining()) {
+            flush();
+
+            // Too big to be worth buffering
+            if (length > buffer.capacity()) {
+                ByteBuffer wrapped = ByteBuffer.wrap(data, offset, length);
+
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+
+                return;
+            }
+        }
+
+        buffer.put(data, offset, length);
+    }
+
+    /**
+     * Replace the original file with everything written so far. Any reader
+     * of the original file has to be closed first.
+     *
+     * @throws IOException if the new file could not be written or moved in place
+     */
+    void commit() throws IOException {
+        flush();
+        channel.force(false);
+        closed = true;
+        out.close();
+
+        if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+            throw new IOException("Could not replace " + file.getPath() + " with " + tempFile.getName());
+        }
+    }
+
+    /**
+     * Throw away everything written, unless it was committed.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        out.close();
+        tempFile.delete();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+}
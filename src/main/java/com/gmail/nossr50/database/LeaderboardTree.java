@@ -0,0 +1,235 @@
+package com.gmail.nossr50.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.gmail.nossr50.datatypes.database.PlayerStat;
+
+/**
+ * Sorted leaderboard for a single stat.
+ * <p/>
+ * Players are kept in a treap ordered by descending stat value, then by
+ * name. Every node knows the size of its subtree, so both the position of a
+ * player and a page of the board can be found without walking the players
+ * before them, and adding, moving or removing a player is O(log n).
+ */
+class LeaderboardTree {
+    private final Random random = new Random();
+    private Node root;
+
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Add a player to the board.
+     *
+     * @param playerName The name of the player, as it should be displayed
+     * @param value The stat value of the player
+     */
+    void add(String playerName, int value) {
+        root = insert(root, new Node(playerName, value, random.nextInt()));
+    }
+
+    /**
+     * Remove a player from the board.
+     *
+     * @param playerName The name of the player
+     * @param value The stat value the player was added with
+     */
+    void remove(String playerName, int value) {
+        root = remove(root, playerName.toLowerCase(), value);
+    }
+
+    /**
+     * Get a slice of the board.
+     *
+     * @param fromIndex The index of the first entry, 0 being the top of the board
+     * @param count The maximum number of entries to return
+     * @return the entries, best first
+     */
+    List<PlayerStat> getRange(int fromIndex, int count) {
+        List<PlayerStat> stats = new ArrayList<PlayerStat>(Math.max(0, Math.min(count, size() - fromIndex)));
+
+        collect(root, fromIndex, fromIndex + count, stats);
+        return stats;
+    }
+
+    /**
+     * Get the position of a player by counting the players ahead of them.
+     *
+     * @param playerName The name of the player
+     * @param value The stat value the player was added with
+     * @return the 1-based position of the player, or null if not on the board
+     */
+    Integer getRank(String playerName, int value) {
+        String key = playerName.toLowerCase();
+        Node node = root;
+        int ahead = 0;
+
+        while (node != null) {
+            int c = compare(value, key, node);
+
+            if (c == 0) {
+                return ahead + size(node.left) + 1;
+            }
+
+            if (c < 0) {
+                node = node.left;
+            }
+            else {
+                ahead += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        return null;
+    }
+
+    private void collect(Node node, int fromIndex, int toIndex, List<PlayerStat> stats) {
+        if (node == null || fromIndex >= toIndex || toIndex <= 0 || fromIndex >= node.size) {
+            return;
+        }
+
+        int leftSize = size(node.left);
+
+        collect(node.left, fromIndex, toIndex, stats);
+
+        if (fromIndex <= leftSize && leftSize < toIndex) {
+            stats.add(new PlayerStat(node.name, node.value));
+        }
+
+        collect(node.right, fromIndex - leftSize - 1, toIndex - leftSize - 1, stats);
+    }
+
+    private Node insert(Node node, Node item) {
+        if (node == null) {
+            return item;
+        }
+
+        // The new node belongs above this one, split the subtree around it
+        if (item.priority > node.priority) {
+            Node[] parts = split(node, item.value, item.key);
+
+            item.left = parts[0];
+            item.right = parts[1];
+            update(item);
+            return item;
+        }
+
+        if (compare(item.value, item.key, node) < 0) {
+            node.left = insert(node.left, item);
+        }
+        else {
+            node.right = insert(node.right, item);
+        }
+
+        update(node);
+        return node;
+    }
+
+    private Node remove(Node node, String key, int value) {
+        if (node == null) {
+            return null;
+        }
+
+        int c = compare(value, key, node);
+
+        if (c == 0) {
+            return merge(node.left, node.right);
+        }
+
+        if (c < 0) {
+            node.left = remove(node.left, key, value);
+        }
+        else {
+            node.right = remove(node.right, key, value);
+        }
+
+        update(node);
+        return node;
+    }
+
+    /**
+     * Split a subtree into the nodes ordered before the given position and the rest.
+     */
+    private Node[] split(Node node, int value, String key) {
+        if (node == null) {
+            return new Node[2];
+        }
+
+        Node[] parts;
+
+        if (compare(value, key, node) <= 0) {
+            parts = split(node.left, value, key);
+            node.left = parts[1];
+            parts[1] = node;
+        }
+        else {
+            parts = split(node.right, value, key);
+            node.right = parts[0];
+            parts[0] = node;
+        }
+
+        update(node);
+        return parts;
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    /**
+     * Compare a position on the board with a node. Higher values come first,
+     * ties are broken by name.
+     */
+    private int compare(int value, String key, Node node) {
+        if (value != node.value) {
+            return value > node.value ? -1 : 1;
+        }
+
+        return key.compareTo(node.key);
+    }
+
+    private void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static class Node {
+        private final String name;
+        private final String key;
+        private final int value;
+        private final int priority;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(String name, int value, int priority) {
+            this.name = name;
+            this.key = name.toLowerCase();
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.gmail.nossr50.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+
+/**
+ * Holds the profiles of offline players changed through the API until they
+ * are flushed, so that many changes to the same players only load each of
+ * them once and are saved together.
+ * <p/>
+ * Profiles are flushed into the {@link ProfileSaveQueue} every few seconds,
+ * when the player logs in, on shutdown, and when asked to through
+ * {@link com.gmail.nossr50.api.ExperienceAPI#flush()}.
+ * <p/>
+ * Profiles are changed through {@link #change(String, ProfileChange)},
+ * under the same lock that flushes them, so a change is always either in a
+ * flush or still buffered afterwards.
+ */
+public class OfflineProfileBuffer {
+    // Buffered profiles, keyed by lowercase player name
+    private final Map<String, PlayerProfile> profiles = new HashMap<String, PlayerProfile>();
+
+    /**
+     * A change to the profile of an offline player.
+     */
+    public interface ProfileChange {
+        /**
+         * Change the profile. Called while the buffer is locked, so this
+         * should only change the profile.
+         *
+         * @param profile The buffered profile
+         */
+        public void apply(PlayerProfile profile);
+    }
+
+    /**
+     * Get the profile of an offline player to read. Changes must go through
+     * {@link #change(String, ProfileChange)}, as this profile may be flushed
+     * at any time.
+     *
+     * @param playerName The name of the player
+     * @return the buffered profile, not loaded if the player doesn't exist
+     */
+    public PlayerProfile getProfile(String playerName) {
+        String key = playerName.toLowerCase();
+
+        synchronized (this) {
+            PlayerProfile profile = profiles.get(key);
+
+            if (profile != null) {
+                return profile;
+            }
+        }
+
+        PlayerProfile profile = mcMMO.getProfileCache().loadPlayerProfile(playerName);
+
+        if (!profile.isLoaded()) {
+            return profile;
+        }
+
+        synchronized (this) {
+            // Someone else may have buffered the player in the meantime
+            PlayerProfile buffered = profiles.get(key);
+
+            if (buffered != null) {
+                return buffered;
+            }
+
+            profiles.put(key, profile);
+        }
+
+        return profile;
+    }
+
+    /**
+     * Change the profile of an offline player. The change is saved when the
+     * buffer is flushed.
+     *
+     * @param playerName The name of the player
+     * @param change The change to make
+     * @return the buffered profile, not loaded and left unchanged if the player doesn't exist
+     */
+    public PlayerProfile change(String playerName, ProfileChange change) {
+        String key = playerName.toLowerCase();
+
+        synchronized (this) {
+            PlayerProfile profile = profiles.get(key);
+
+            if (profile != null) {
+                change.apply(profile);
+                return profile;
+            }
+        }
+
+        PlayerProfile profile = mcMMO.getProfileCache().loadPlayerProfile(playerName);
+
+        if (!profile.isLoaded()) {
+            return profile;
+        }
+
+        synchronized (this) {
+            // Someone else may have buffered the player in the meantime
+            PlayerProfile buffered = profiles.get(key);
+
+            if (buffered == null) {
+                buffered = profile;
+                profiles.put(key, profile);
+            }
+
+            change.apply(buffered);
+            return buffered;
+        }
+    }
+
+    /**
+     * Queue every changed profile to be saved and empty the buffer.
+     */
+    public synchronized void flush() {
+        if (profiles.isEmpty()) {
+            return;
+        }
+
+        // Snapshot them under the lock, so no change can come in between
+        List<PlayerProfile> flushed = new ArrayList<PlayerProfile>(profiles.values());
+        profiles.clear();
+        PlayerProfile.save(flushed);
+    }
+
+    /**
+     * Queue the profile of one player to be saved, if it was changed, and
+     * drop it from the buffer. Must be done before the player's profile is
+     * loaded for them to play.
+     *
+     * @param playerName The name of the player
+     */
+    public synchronized void flush(String playerName) {
+        PlayerProfile profile = profiles.remove(playerName.toLowerCase());
+
+        if (profile != null) {
+            PlayerProfile.save(Collections.singletonList(profile));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.gmail.nossr50.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
+import com.gmail.nossr50.util.player.UserManager;
+
+/**
+ * Keeps the profiles of offline players that were looked up recently, so
+ * that commands and plugins asking for the same players over and over don't
+ * go to the database every time.
+ * <p/>
+ * Profiles are kept as snapshots and every lookup gets its own copy, so a
+ * caller changing the profile it got doesn't change the cache. Saves
+ * replace the cached snapshot of the player, and a load that raced with a
+ * save is not cached at all. Players are keyed by lowercase name, like the
+ * databases compare them.
+ * <p/>
+ * Every save and removal also throws away the profile warmed up for the
+ * player by {@link UserManager}, which may be older.
+ */
+public class ProfileCache {
+    // Most profiles to keep, the least recently used ones go first
+    private static final int MAX_SIZE = 500;
+
+    // How long a profile is kept (default 5 minutes)
+    private static final long EXPIRY = 5L * 60L * 1000L;
+
+    private final Map<String, CachedProfile> profiles = new LinkedHashMap<String, CachedProfile>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedProfile> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    // Goes up with every save, so loads can tell if they might have read old data
+    private long generation = 0;
+
+    /**
+     * Get the profile of a player who may be offline, from memory when
+     * possible. Safe to call from any thread.
+     *
+     * @param playerName The name of the player
+     * @return a profile the caller may change, not loaded if the player doesn't exist
+     */
+    public PlayerProfile loadPlayerProfile(String playerName) {
+        // A save that didn't reach the database yet is newer than anything in there
+        PlayerProfile unsaved = mcMMO.getProfileSaveQueue().getUnsaved(playerName);
+
+        if (unsaved != null) {
+            return unsaved;
+        }
+
+        String key = playerName.toLowerCase();
+        long loadGeneration;
+
+        synchronized (this) {
+            CachedProfile cached = profiles.get(key);
+
+            if (cached != null) {
+                if (System.currentTimeMillis() - cached.cachedAt <= EXPIRY) {
+                    return cached.snapshot.toProfile();
+                }
+
+                profiles.remove(key);
+            }
+
+            loadGeneration = generation;
+        }
+
+        PlayerProfile profile = mcMMO.getDatabaseManager().loadPlayerProfile(playerName, false);
+
+        if (profile.isLoaded()) {
+            synchronized (this) {
+                if (generation == loadGeneration) {
+                    profiles.put(key, new CachedProfile(profile.getSnapshot(), System.currentTimeMillis()));
+                }
+            }
+        }
+
+        return profile;
+    }
+
+    /**
+     * Replace the cached profile of a player who was just saved. Players who
+     * aren't cached stay that way.
+     *
+     * @param snapshot The saved profile
+     */
+    public synchronized void update(ProfileSnapshot snapshot) {
+        generation++;
+        UserManager.discardWarmedProfile(snapshot.getPlayerName());
+
+        String key = snapshot.getPlayerName().toLowerCase();
+
+        if (profiles.containsKey(key)) {
+            profiles.put(key, new CachedProfile(snapshot, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Forget the cached profile of a player, for when they are removed from
+     * the database.
+     *
+     * @param playerName The name of the player
+     */
+    public synchronized void invalidate(String playerName) {
+        generation++;
+        UserManager.discardWarmedProfile(playerName);
+        profiles.remove(playerName.toLowerCase());
+    }
+
+    /**
+     * Forget every cached profile.
+     */
+    public synchronized void clear() {
+        generation++;
+        UserManager.discardWarmedProfiles();
+        profiles.clear();
+    }
+
+    private static class CachedProfile {
+        private final ProfileSnapshot snapshot;
+        private final long cachedAt;
+
+        private CachedProfile(ProfileSnapshot snapshot, long cachedAt) {
+            this.snapshot = snapshot;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.gmail.nossr50.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
+
+/**
+ * Writes player profiles to the database on a background thread.
+ * <p/>
+ * Profiles are queued as snapshots taken on the main thread. A player who
+ * already has a save waiting only keeps their latest snapshot, and whatever
+ * is waiting is written with a single {@link BatchDatabaseManager#saveUsers(Collection)}
+ * call per batch, so a wave of logouts turns into a handful of writes.
+ * <p/>
+ * Every profile save goes through this queue, which keeps the saves of a
+ * player in order.
+ */
+public class ProfileSaveQueue implements Runnable {
+    private static final int MAX_BATCH_SIZE = 200;
+
+    // How long to wait before trying again when the database failed (default 5 seconds)
+    private static final long RETRY_DELAY = 5000L;
+
+    // When saving a failed batch one profile at a time, give up on the rest after this many failures in a row
+    private static final int MAX_FAILURES_IN_A_ROW = 3;
+
+    // How long flush() waits for the queue to empty (default 30 seconds)
+    private static final long FLUSH_TIMEOUT = 30000L;
+
+    // Snapshots waiting to be written, keyed by lowercase player name
+    private final Map<String, ProfileSnapshot> pending = new LinkedHashMap<String, ProfileSnapshot>();
+    // Snapshots being written right now, keyed by lowercase player name
+    private final Map<String, ProfileSnapshot> writing = new HashMap<String, ProfileSnapshot>();
+
+    private boolean running = false;
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+
+        Thread thread = new Thread(this, "mcMMO Profile Saver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a profile to be saved.
+     *
+     * @param snapshot A snapshot of the profile
+     */
+    public synchronized void add(ProfileSnapshot snapshot) {
+        pending.put(snapshot.getPlayerName().toLowerCase(), snapshot);
+        mcMMO.getProfileCache().update(snapshot);
+        notifyAll();
+    }
+
+    /**
+     * Queue several profiles to be saved.
+     *
+     * @param snapshots Snapshots of the profiles
+     */
+    public synchronized void addAll(Collection<ProfileSnapshot> snapshots) {
+        for (ProfileSnapshot snapshot : snapshots) {
+            pending.put(snapshot.getPlayerName().toLowerCase(), snapshot);
+            mcMMO.getProfileCache().update(snapshot);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Get the latest profile of a player that didn't reach the database yet.
+     * Anything loading a profile has to check this first.
+     *
+     * @param playerName The name of the player
+     * @return a copy of the unsaved profile, or null if the database is up to date
+     */
+    public synchronized PlayerProfile getUnsaved(String playerName) {
+        String key = playerName.toLowerCase();
+        ProfileSnapshot snapshot = pending.get(key);
+
+        if (snapshot == null) {
+            snapshot = writing.get(key);
+        }
+
+        return snapshot == null ? null : snapshot.toProfile();
+    }
+
+    /**
+     * Wait for everything queued so far to be written, for a limited time.
+     *
+     * @return true if the queue was emptied in time
+     */
+    public synchronized boolean flush() {
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+
+        while (!pending.isEmpty() || !writing.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0 || !running) {
+                return false;
+            }
+
+            try {
+                wait(remaining);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Write what is left in the queue, for a limited time, and stop the
+     * background thread.
+     */
+    public void shutdown() {
+        boolean flushed = flush();
+
+        synchronized (this) {
+            if (!flushed) {
+                mcMMO.p.getLogger().severe("Could not save " + (pending.size() + writing.size()) + " player profiles in time, their latest changes are lost.");
+            }
+
+            running = false;
+            notifyAll();
+        }
+    }
+
+    public void run() {
+        while (true) {
+            List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>();
+
+            synchronized (this) {
+                try {
+                    while (running && pending.isEmpty()) {
+                        wait();
+                    }
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                if (!running) {
+                    return;
+                }
+
+                for (Iterator<Map.Entry<String, ProfileSnapshot>> iterator = pending.entrySet().iterator(); iterator.hasNext() && batch.size() < MAX_BATCH_SIZE;) {
+                    Map.Entry<String, ProfileSnapshot> entry = iterator.next();
+
+                    writing.put(entry.getKey(), entry.getValue());
+                    batch.add(entry.getValue());
+                    iterator.remove();
+                }
+            }
+
+            List<ProfileSnapshot> failed;
+
+            if (save(batch)) {
+                failed = Collections.emptyList();
+            }
+            else if (batch.size() > 1) {
+                failed = saveOneByOne(batch);
+            }
+            else {
+                failed = batch;
+            }
+
+            synchronized (this) {
+                writing.clear();
+
+                if (!failed.isEmpty()) {
+                    mcMMO.p.getLogger().warning("Failed to save " + failed.size() + " PlayerProfiles, trying again in " + (RETRY_DELAY / 1000) + " seconds.");
+
+                    // Put them back, unless they were queued again in the meantime
+                    for (ProfileSnapshot snapshot : failed) {
+                        String key = snapshot.getPlayerName().toLowerCase();
+
+                        if (!pending.containsKey(key)) {
+                            pending.put(key, snapshot);
+                        }
+                    }
+                }
+
+                notifyAll();
+
+                if (!failed.isEmpty() && running) {
+                    try {
+                        wait(RETRY_DELAY);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean save(List<ProfileSnapshot> batch) {
+        try {
+            return DatabaseManagerFactory.saveUsers(mcMMO.getDatabaseManager(), batch);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Save the profiles of a failed batch one at a time, so that a profile
+     * that can't be saved doesn't hold back the rest of its batch. When
+     * several saves in a row fail, the database is probably down, so the
+     * rest isn't tried.
+     *
+     * @param batch The profiles to save
+     * @return the profiles that weren't saved
+     */
+    private List<ProfileSnapshot> saveOneByOne(List<ProfileSnapshot> batch) {
+        List<ProfileSnapshot> failed = new ArrayList<ProfileSnapshot>();
+        int failuresInARow = 0;
+
+        for (ProfileSnapshot snapshot : batch) {
+            if (failuresInARow >= MAX_FAILURES_IN_A_ROW) {
+                failed.add(snapshot);
+                continue;
+            }
+
+            if (save(Collections.singletonList(snapshot))) {
+                failuresInARow = 0;
+                continue;
+            }
+
+            mcMMO.p.getLogger().warning("Failed to save the profile of " + snapshot.getPlayerName() + ".");
+            failed.add(snapshot);
+            failuresInARow++;
+        }
+
+        return failed;
+    }
+}
@@ -0,0 +1,319 @@
+package com.gmail.nossr50.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A small, bounded pool of JDBC connections.
+ * <p/>
+ * Connections are validated when they are borrowed, so one the server
+ * dropped while it sat idle is replaced instead of handed out. Connections
+ * that stay idle for longer than {@link #IDLE_TIMEOUT} are closed, and the
+ * most recently used one is always handed out first so the rest can age out
+ * when the load drops.
+ * <p/>
+ * Each connection also keeps the statements prepared through
+ * {@link #prepare(Connection, String)}, so queries that run all the time
+ * are only prepared once per connection.
+ * <p/>
+ * Once {@link #close()} was called, no connection is handed out anymore and
+ * the ones still borrowed are closed when they are given back.
+ */
+class SQLConnectionPool {
+    // How long to wait when checking if a connection is valid (default 3 seconds)
+    private static final int VALID_TIMEOUT = 3;
+
+    // How long an unused connection is kept open (default 10 minutes)
+    private static final long IDLE_TIMEOUT = 10L * 60L * 1000L;
+
+    // How long to wait for a connection when they are all in use (default 30 seconds)
+    private static final long BORROW_TIMEOUT = 30L * 1000L;
+
+    private final String url;
+    private final Properties properties;
+    private final int maxConnections;
+
+    private final Deque<IdleConnection> idle = new ArrayDeque<IdleConnection>();
+    private int openConnections = 0;
+    private boolean closed = false;
+
+    // Prepared statements of every open connection, keyed by their SQL
+    private final Map<Connection, Map<String, PreparedStatement>> statements = new IdentityHashMap<Connection, Map<String, PreparedStatement>>();
+
+    SQLConnectionPool(String url, Properties properties, int maxConnections) {
+        this.url = url;
+        this.properties = properties;
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Borrow a connection, opening a new one if none is idle and the pool
+     * isn't full. Every connection borrowed has to be given back with
+     * {@link #release(Connection)}.
+     *
+     * @return a valid connection
+     * @throws SQLTimeoutException if every connection stayed in use for too long
+     * @throws SQLException if no connection could be opened
+     */
+    Connection getConnection() throws SQLException {
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+
+        while (true) {
+            IdleConnection candidate = null;
+
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("The connection pool is closed");
+                }
+
+                evictIdle();
+
+                while (idle.isEmpty() && openConnections >= maxConnections) {
+                    long remaining = deadline - System.currentTimeMillis();
+
+                    if (remaining <= 0) {
+                        throw new SQLTimeoutException("Timed out waiting for one of " + maxConnections + " database connections");
+                    }
+
+                    try {
+                        wait(remaining);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLTimeoutException("Interrupted while waiting for a database connection");
+                    }
+
+                    if (closed) {
+                        throw new SQLException("The connection pool is closed");
+                    }
+                }
+
+                if (!idle.isEmpty()) {
+                    candidate = idle.pollFirst();
+                }
+                else {
+                    // Reserve the slot before leaving the lock to open the connection
+                    openConnections++;
+                }
+            }
+
+            if (candidate == null) {
+                return openConnection();
+            }
+
+            if (isValid(candidate.connection)) {
+                return candidate.connection;
+            }
+
+            // Dropped by the server while it was idle, try the next one
+            discard(candidate.connection);
+        }
+    }
+
+    /**
+     * Give a borrowed connection back to the pool.
+     *
+     * @param connection The connection to give back, may be null
+     */
+    void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            if (connection.isClosed()) {
+                forget(connection);
+                return;
+            }
+
+            // Don't let an unfinished transaction leak into the next borrower
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+        catch (SQLException e) {
+            discard(connection);
+            return;
+        }
+
+        synchronized (this) {
+            if (!closed) {
+                idle.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+                notifyAll();
+                return;
+            }
+        }
+
+        closeStatements(connection);
+        discard(connection);
+    }
+
+    /**
+     * Close every idle connection along with its prepared statements, and
+     * stop handing out connections. Borrowed connections are closed as they
+     * are given back.
+     */
+    void close() {
+        List<Connection> connections = new ArrayList<Connection>();
+
+        synchronized (this) {
+            closed = true;
+
+            for (IdleConnection candidate : idle) {
+                connections.add(candidate.connection);
+            }
+
+            idle.clear();
+            notifyAll();
+        }
+
+        for (Connection connection : connections) {
+            closeStatements(connection);
+            discard(connection);
+        }
+    }
+
+    /**
+     * Get a prepared statement for a borrowed connection, preparing it only
+     * the first time the connection sees that query. The statement belongs
+     * to the pool and must not be closed.
+     *
+     * @param connection A connection borrowed from this pool
+     * @param sql The query to prepare
+     * @return the prepared statement, with no parameters or batch left from earlier uses
+     * @throws SQLException if the statement could not be prepared
+     */
+    PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        Map<String, PreparedStatement> cache;
+
+        synchronized (this) {
+            cache = statements.get(connection);
+
+            if (cache == null) {
+                cache = new HashMap<String, PreparedStatement>();
+                statements.put(connection, cache);
+            }
+        }
+
+        // Only the borrower of the connection touches its cache
+        PreparedStatement statement = cache.get(sql);
+
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            cache.put(sql, statement);
+            return statement;
+        }
+
+        // A failed save may have left a half built batch behind
+        statement.clearBatch();
+        statement.clearParameters();
+        return statement;
+    }
+
+    private Connection openConnection() throws SQLException {
+        try {
+            return DriverManager.getConnection(url, properties);
+        }
+        catch (SQLException e) {
+            forget(null);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            forget(null);
+            throw e;
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALID_TIMEOUT);
+        }
+        catch (SQLException e) {
+            // It's normal for the server to drop idle connections, so this isn't worth a stack trace
+            return false;
+        }
+    }
+
+    private void evictIdle() {
+        long oldest = System.currentTimeMillis() - IDLE_TIMEOUT;
+
+        // The least recently used connections sit at the end
+        for (Iterator<IdleConnection> iterator = idle.descendingIterator(); iterator.hasNext();) {
+            IdleConnection candidate = iterator.next();
+
+            if (candidate.releasedAt > oldest) {
+                break;
+            }
+
+            iterator.remove();
+            statements.remove(candidate.connection);
+            tryClose(candidate.connection);
+            openConnections--;
+        }
+    }
+
+    private void closeStatements(Connection connection) {
+        Map<String, PreparedStatement> cache;
+
+        synchronized (this) {
+            cache = statements.get(connection);
+        }
+
+        if (cache == null) {
+            return;
+        }
+
+        for (PreparedStatement statement : cache.values()) {
+            try {
+                statement.close();
+            }
+            catch (SQLException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private void discard(Connection connection) {
+        tryClose(connection);
+        forget(connection);
+    }
+
+    private synchronized void forget(Connection connection) {
+        // Closing the connection closed its statements too
+        statements.remove(connection);
+        openConnections--;
+        notifyAll();
+    }
+
+    private void tryClose(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+            // Ignore
+        }
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long releasedAt;
+
+        private IdleConnection(Connection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
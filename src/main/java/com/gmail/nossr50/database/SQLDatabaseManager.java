@@ -1,17 +1,21 @@
 package com.gmail.nossr50.database;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.config.Config;
@@ -20,16 +24,36 @@ import com.gmail.nossr50.datatypes.database.DatabaseType;
 import com.gmail.nossr50.datatypes.database.DatabaseUpdateType;
 import com.gmail.nossr50.datatypes.database.PlayerStat;
 import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
 import com.gmail.nossr50.datatypes.skills.AbilityType;
 import com.gmail.nossr50.datatypes.skills.SkillType;
-import com.gmail.nossr50.runnables.database.SQLDatabaseKeepaliveTask;
 import com.gmail.nossr50.runnables.database.SQLReconnectTask;
 import com.gmail.nossr50.util.Misc;
 
-public final class SQLDatabaseManager implements DatabaseManager {
-    private String connectionString;
-    private String tablePrefix = Config.getInstance().getMySQLTablePrefix();
-    private Connection connection = null;
+public final class SQLDatabaseManager implements BatchDatabaseManager {
+    private final SQLDialect dialect;
+    private final String tablePrefix;
+    private final SQLConnectionPool pool;
+
+    // Skills and abilities written by saveUsers, and the cooldowns column of each ability
+    private static final SkillType[] SAVED_SKILLS = { SkillType.TAMING, SkillType.MINING, SkillType.REPAIR, SkillType.WOODCUTTING, SkillType.UNARMED, SkillType.HERBALISM, SkillType.EXCAVATION, SkillType.ARCHERY, SkillType.SWORDS, SkillType.AXES, SkillType.ACROBATICS, SkillType.FISHING };
+    private static final AbilityType[] SAVED_ABILITIES = { AbilityType.SUPER_BREAKER, AbilityType.TREE_FELLER, AbilityType.BERSERK, AbilityType.GREEN_TERRA, AbilityType.GIGA_DRILL_BREAKER, AbilityType.SERRATED_STRIKES, AbilityType.SKULL_SPLITTER, AbilityType.BLAST_MINING };
+    private static final String[] SAVED_ABILITY_COLUMNS = { "mining", "woodcutting", "unarmed", "herbalism", "excavation", "swords", "axes", "blast_mining" };
+
+    // Most ids or names to put in one query, SQLite refuses more than 999 parameters
+    private static final int MAX_PARAMETERS = 500;
+
+    // Last login field of mcmmo.users
+    private static final int LAST_LOGIN_FIELD = 37;
+
+    // Writes every table of a player in one statement
+    private final String saveQuery;
+
+    // Writes the tables of a player one statement per table, for databases that can't update joined tables
+    private final String[] tableSaveQueries;
+
+    // Reads every rank of a player in one statement
+    private final String rankQuery;
 
     // Scale waiting time by this much per failed attempt
     private final double SCALING_FACTOR = 40.0;
@@ -40,19 +64,26 @@ public final class SQLDatabaseManager implements DatabaseManager {
     // Maximum time to wait between reconnects (default 5 minutes)
     private final long MAX_WAIT = 5L * 60L * 1000L * 1000000L;
 
-    // How long to wait when checking if connection is valid (default 3 seconds)
-    private final int VALID_TIMEOUT = 3;
-
     // When next to try connecting to Database in nanoseconds
     private long nextReconnectTimestamp = 0L;
 
     // How many connection attempts have failed
     private int reconnectAttempt = 0;
 
+    private final Object reconnectLock = new Object();
+
     protected SQLDatabaseManager() {
-        checkStructure();
+        this(SQLDialect.MYSQL);
+    }
 
-        new SQLDatabaseKeepaliveTask(this).runTaskTimerAsynchronously(mcMMO.p, 10, 60L * 60 * Misc.TICK_CONVERSION_FACTOR);
+    SQLDatabaseManager(SQLDialect dialect) {
+        this.dialect = dialect;
+        tablePrefix = dialect.getTablePrefix();
+        pool = dialect.createPool();
+        saveQuery = buildSaveQuery();
+        tableSaveQueries = buildTableSaveQueries();
+        rankQuery = buildRankQuery();
+        checkStructure();
     }
 
     public void purgePowerlessUsers() {
@@ -62,17 +93,13 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         mcMMO.p.getLogger().info("Purging powerless users...");
 
-        Collection<ArrayList<String>> usernames = read("SELECT u.user FROM " + tablePrefix + "skills AS s, " + tablePrefix + "users AS u WHERE s.user_id = u.id AND (s.taming+s.mining+s.woodcutting+s.repair+s.unarmed+s.herbalism+s.excavation+s.archery+s.swords+s.axes+s.acrobatics+s.fishing) = 0").values();
+        List<String> purged = removePowerlessUsers();
 
-        write("DELETE FROM u, e, h, s, c USING " + tablePrefix + "users u " +
-                "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) " +
-                "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) " +
-                "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) " +
-                "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) " +
-                "WHERE (s.taming+s.mining+s.woodcutting+s.repair+s.unarmed+s.herbalism+s.excavation+s.archery+s.swords+s.axes+s.acrobatics+s.fishing) = 0");
+        for (String playerName : purged) {
+            Misc.profileCleanup(playerName);
+        }
 
-        processPurge(usernames);
-        mcMMO.p.getLogger().info("Purged " + usernames.size() + " users from the database.");
+        mcMMO.p.getLogger().info("Purged " + purged.size() + " users from the database.");
     }
 
     public void purgeOldUsers() {
@@ -84,31 +111,38 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         mcMMO.p.getLogger().info("Purging old users...");
 
-        Collection<ArrayList<String>> usernames = read("SELECT user FROM " + tablePrefix + "users WHERE ((" + currentTime + " - lastlogin * " + Misc.TIME_CONVERSION_FACTOR + ") > " + PURGE_TIME + ")").values();
+        List<String> purged = purgeUsers("SELECT id, user FROM " + tablePrefix + "users WHERE ((" + currentTime + " - lastlogin * " + Misc.TIME_CONVERSION_FACTOR + ") > " + PURGE_TIME + ")");
 
-        write("DELETE FROM u, e, h, s, c USING " + tablePrefix + "users u " +
-                "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) " +
-                "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) " +
-                "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) " +
-                "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) " +
-                "WHERE ((" + currentTime + " - lastlogin * " + Misc.TIME_CONVERSION_FACTOR + ") > " + PURGE_TIME + ")");
+        for (String playerName : purged) {
+            Misc.profileCleanup(playerName);
+        }
 
-        processPurge(usernames);
-        mcMMO.p.getLogger().info("Purged " + usernames.size() + " users from the database.");
+        mcMMO.p.getLogger().info("Purged " + purged.size() + " users from the database.");
     }
 
     public boolean removeUser(String playerName) {
-        if (!checkConnected()) {
+        Connection connection = getConnection();
+
+        if (connection == null) {
             return false;
         }
 
-        boolean success = update("DELETE FROM u, e, h, s, c " +
-                "USING " + tablePrefix + "users u " +
-                "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) " +
-                "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) " +
-                "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) " +
-                "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) " +
-                "WHERE u.user = '" + playerName + "'") != 0;
+        boolean success = false;
+
+        try {
+            int id = readId(connection, playerName);
+
+            if (id != -1) {
+                deleteUsers(connection, Collections.singletonList(id));
+                success = true;
+            }
+        }
+        catch (SQLException ex) {
+            printErrors(ex);
+        }
+        finally {
+            release(connection);
+        }
 
         Misc.profileCleanup(playerName);
 
@@ -116,88 +150,344 @@ public final class SQLDatabaseManager implements DatabaseManager {
     }
 
     public boolean saveUser(PlayerProfile profile) {
-        if (!checkConnected()) {
+        return saveUsers(Collections.singletonList(profile.getSnapshot()));
+    }
+
+    public boolean saveUsers(Collection<ProfileSnapshot> profiles) {
+        Connection connection = getConnection();
+
+        if (connection == null) {
+            return false;
+        }
+
+        try {
+            return saveUsers(connection, profiles);
+        }
+        finally {
+            release(connection);
+        }
+    }
+
+    private boolean saveUsers(Connection connection, Collection<ProfileSnapshot> snapshots) {
+        // Names don't compare with case, so a name in two cases is one user, saved as the latest of them
+        Map<String, ProfileSnapshot> profilesByName = new LinkedHashMap<String, ProfileSnapshot>();
+
+        for (ProfileSnapshot profile : snapshots) {
+            profilesByName.remove(profile.getPlayerName().toLowerCase());
+            profilesByName.put(profile.getPlayerName().toLowerCase(), profile);
+        }
+
+        List<String> playerNames = new ArrayList<String>(profilesByName.size());
+
+        for (ProfileSnapshot profile : profilesByName.values()) {
+            playerNames.add(profile.getPlayerName());
+        }
+
+        Map<String, Integer> userIds = readIds(connection, playerNames);
+        List<String> newPlayerNames = new ArrayList<String>();
+
+        for (String playerName : playerNames) {
+            if (!userIds.containsKey(playerName.toLowerCase())) {
+                newPlayerNames.add(playerName);
+            }
+        }
+
+        // Create everyone missing at once, which is most of them during a conversion
+        if (!newPlayerNames.isEmpty()) {
+            userIds.putAll(newUsers(connection, newPlayerNames));
+        }
+
+        // Skip the users that couldn't be created, so they don't stop the rest from being saved
+        List<ProfileSnapshot> profiles = new ArrayList<ProfileSnapshot>(profilesByName.size());
+        boolean skipped = false;
+
+        for (ProfileSnapshot profile : profilesByName.values()) {
+            if (userIds.containsKey(profile.getPlayerName().toLowerCase())) {
+                profiles.add(profile);
+                continue;
+            }
+
+            mcMMO.p.getLogger().warning("Could not create the user " + profile.getPlayerName() + ", their profile was not saved.");
+            skipped = true;
+        }
+
+        if (profiles.isEmpty()) {
+            return !skipped;
+        }
+
+        boolean autoCommit = true;
+
+        try {
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            long login = System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR;
+
+            if (dialect == SQLDialect.MYSQL) {
+                saveUsersJoined(connection, profiles, userIds, login);
+            }
+            else {
+                saveUsersByTable(connection, profiles, userIds, login);
+            }
+
+            connection.commit();
+            return !skipped;
+        }
+        catch (SQLException ex) {
+            printErrors(ex);
+
+            try {
+                connection.rollback();
+            }
+            catch (SQLException e) {
+                // Ignore
+            }
+
             return false;
         }
+        finally {
+            try {
+                connection.setAutoCommit(autoCommit);
+            }
+            catch (SQLException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Write the profiles with the query that updates every table at once.
+     */
+    private void saveUsersJoined(Connection connection, Collection<ProfileSnapshot> profiles, Map<String, Integer> userIds, long login) throws SQLException {
+        PreparedStatement statement = pool.prepare(connection, saveQuery);
+        List<Integer> batchIds = new ArrayList<Integer>(profiles.size());
+
+        for (ProfileSnapshot profile : profiles) {
+            int userId = userIds.get(profile.getPlayerName().toLowerCase());
+
+            setSaveParameters(statement, profile, userId, login);
+            statement.addBatch();
+            batchIds.add(userId);
+        }
+
+        int[] updated = statement.executeBatch();
+        int i = 0;
+
+        // The joins skip users missing a row in one of the tables, fix them and save them again
+        for (ProfileSnapshot profile : profiles) {
+            int userId = batchIds.get(i);
+
+            if (updated[i++] == 0) {
+                writeMissingRows(connection, userId);
+                setSaveParameters(statement, profile, userId, login);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Write the profiles with one batch per table.
+     */
+    private void saveUsersByTable(Connection connection, Collection<ProfileSnapshot> profiles, Map<String, Integer> userIds, long login) throws SQLException {
+        PreparedStatement[] statements = new PreparedStatement[tableSaveQueries.length];
+
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = pool.prepare(connection, tableSaveQueries[i]);
+        }
 
-        int userId = readId(profile.getPlayerName());
-        if (userId == -1) {
-            newUser(profile.getPlayerName());
-            userId = readId(profile.getPlayerName());
-            if (userId == -1) {
-                return false;
+        for (ProfileSnapshot profile : profiles) {
+            setTableSaveParameters(statements, profile, userIds.get(profile.getPlayerName().toLowerCase()), login);
+
+            for (PreparedStatement statement : statements) {
+                statement.addBatch();
             }
         }
-        boolean success = true;
+
+        for (PreparedStatement statement : statements) {
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Fill in the parameters of the save query for one player.
+     */
+    private void setSaveParameters(PreparedStatement statement, ProfileSnapshot profile, int userId, long login) throws SQLException {
         MobHealthbarType mobHealthbarType = profile.getMobHealthbarType();
+        int i = 1;
 
-        success &= saveLogin(userId, ((int) (System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR)));
-        success &= saveHuds(userId, (mobHealthbarType == null ? Config.getInstance().getMobHealthbarDefault().toString() : mobHealthbarType.toString()));
-        success &= saveLongs(
-                "UPDATE " + tablePrefix + "cooldowns SET "
-                    + "  mining = ?, woodcutting = ?, unarmed = ?"
-                    + ", herbalism = ?, excavation = ?, swords = ?"
-                    + ", axes = ?, blast_mining = ? WHERE user_id = ?",
-                userId,
-                profile.getSkillDATS(AbilityType.SUPER_BREAKER),
-                profile.getSkillDATS(AbilityType.TREE_FELLER),
-                profile.getSkillDATS(AbilityType.BERSERK),
-                profile.getSkillDATS(AbilityType.GREEN_TERRA),
-                profile.getSkillDATS(AbilityType.GIGA_DRILL_BREAKER),
-                profile.getSkillDATS(AbilityType.SERRATED_STRIKES),
-                profile.getSkillDATS(AbilityType.SKULL_SPLITTER),
-                profile.getSkillDATS(AbilityType.BLAST_MINING));
-        success &= saveIntegers(
-                "UPDATE " + tablePrefix + "skills SET "
-                    + " taming = ?, mining = ?, repair = ?, woodcutting = ?"
-                    + ", unarmed = ?, herbalism = ?, excavation = ?"
-                    + ", archery = ?, swords = ?, axes = ?, acrobatics = ?"
-                    + ", fishing = ? WHERE user_id = ?",
-                profile.getSkillLevel(SkillType.TAMING),
-                profile.getSkillLevel(SkillType.MINING),
-                profile.getSkillLevel(SkillType.REPAIR),
-                profile.getSkillLevel(SkillType.WOODCUTTING),
-                profile.getSkillLevel(SkillType.UNARMED),
-                profile.getSkillLevel(SkillType.HERBALISM),
-                profile.getSkillLevel(SkillType.EXCAVATION),
-                profile.getSkillLevel(SkillType.ARCHERY),
-                profile.getSkillLevel(SkillType.SWORDS),
-                profile.getSkillLevel(SkillType.AXES),
-                profile.getSkillLevel(SkillType.ACROBATICS),
-                profile.getSkillLevel(SkillType.FISHING),
-                userId);
-        success &= saveIntegers(
-                "UPDATE " + tablePrefix + "experience SET "
-                    + " taming = ?, mining = ?, repair = ?, woodcutting = ?"
-                    + ", unarmed = ?, herbalism = ?, excavation = ?"
-                    + ", archery = ?, swords = ?, axes = ?, acrobatics = ?"
-                    + ", fishing = ? WHERE user_id = ?",
-                profile.getSkillXpLevel(SkillType.TAMING),
-                profile.getSkillXpLevel(SkillType.MINING),
-                profile.getSkillXpLevel(SkillType.REPAIR),
-                profile.getSkillXpLevel(SkillType.WOODCUTTING),
-                profile.getSkillXpLevel(SkillType.UNARMED),
-                profile.getSkillXpLevel(SkillType.HERBALISM),
-                profile.getSkillXpLevel(SkillType.EXCAVATION),
-                profile.getSkillXpLevel(SkillType.ARCHERY),
-                profile.getSkillXpLevel(SkillType.SWORDS),
-                profile.getSkillXpLevel(SkillType.AXES),
-                profile.getSkillXpLevel(SkillType.ACROBATICS),
-                profile.getSkillXpLevel(SkillType.FISHING),
-                userId);
-        return success;
+        statement.setLong(i++, login);
+        statement.setString(i++, mobHealthbarType == null ? Config.getInstance().getMobHealthbarDefault().toString() : mobHealthbarType.toString());
+
+        for (AbilityType ability : SAVED_ABILITIES) {
+            statement.setLong(i++, profile.getSkillDATS(ability));
+        }
+
+        int powerLevel = 0;
+
+        for (SkillType skill : SAVED_SKILLS) {
+            int level = profile.getSkillLevel(skill);
+
+            statement.setInt(i++, level);
+            powerLevel += level;
+        }
+
+        statement.setInt(i++, powerLevel);
+
+        for (SkillType skill : SAVED_SKILLS) {
+            statement.setInt(i++, profile.getSkillXpLevel(skill));
+        }
+
+        statement.setInt(i, userId);
+    }
+
+    /**
+     * Fill in the parameters of the per table save queries for one player.
+     */
+    private void setTableSaveParameters(PreparedStatement[] statements, ProfileSnapshot profile, int userId, long login) throws SQLException {
+        MobHealthbarType mobHealthbarType = profile.getMobHealthbarType();
+        PreparedStatement users = statements[0];
+        PreparedStatement huds = statements[1];
+        PreparedStatement cooldowns = statements[2];
+        PreparedStatement skills = statements[3];
+        PreparedStatement experience = statements[4];
+
+        users.setLong(1, login);
+        users.setInt(2, userId);
+
+        huds.setInt(1, userId);
+        huds.setString(2, mobHealthbarType == null ? Config.getInstance().getMobHealthbarDefault().toString() : mobHealthbarType.toString());
+
+        cooldowns.setInt(1, userId);
+        skills.setInt(1, userId);
+        experience.setInt(1, userId);
+
+        int i = 2;
+
+        for (AbilityType ability : SAVED_ABILITIES) {
+            cooldowns.setLong(i++, profile.getSkillDATS(ability));
+        }
+
+        int powerLevel = 0;
+        i = 2;
+
+        for (SkillType skill : SAVED_SKILLS) {
+            int level = profile.getSkillLevel(skill);
+
+            skills.setInt(i++, level);
+            experience.setInt(i - 1, profile.getSkillXpLevel(skill));
+            powerLevel += level;
+        }
+
+        skills.setInt(i, powerLevel);
+    }
+
+    /**
+     * Build the query that reads every rank of a player at once.
+     * <p/>
+     * For every skill and the power level it returns how many players are
+     * ranked above the player, followed by the player's own level. Players
+     * with the same level are ranked like the leaderboards order them, the
+     * most recently added one first.
+     */
+    private String buildRankQuery() {
+        StringBuilder query = new StringBuilder("SELECT ");
+
+        for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+            String column = skillType.name().toLowerCase();
+
+            appendRank(query, "rs." + column, "s." + column);
+        }
+
+        appendRank(query, "rs.total", "s.total");
+
+        query.setLength(query.length() - 2);
+        query.append(" FROM ").append(tablePrefix).append("users u JOIN ").append(tablePrefix).append("skills s ON (u.id = s.user_id) WHERE u.user = ?");
+        return query.toString();
+    }
+
+    private void appendRank(StringBuilder query, String theirs, String ours) {
+        // Two counts rather than one with an OR, so each can use the index on the column
+        query.append("(SELECT COUNT(*) FROM ").append(tablePrefix).append("skills rs WHERE ").append(theirs).append(" > ").append(ours).append(") + ");
+        query.append("(SELECT COUNT(*) FROM ").append(tablePrefix).append("skills rs WHERE ").append(theirs).append(" = ").append(ours).append(" AND rs.user_id > s.user_id), ");
+        query.append(ours).append(", ");
+    }
+
+    /**
+     * Build the query that writes every table of a player at once.
+     */
+    private String buildSaveQuery() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("UPDATE ").append(tablePrefix).append("users u ");
+        query.append("JOIN ").append(tablePrefix).append("huds h ON (u.id = h.user_id) ");
+        query.append("JOIN ").append(tablePrefix).append("cooldowns c ON (u.id = c.user_id) ");
+        query.append("JOIN ").append(tablePrefix).append("skills s ON (u.id = s.user_id) ");
+        query.append("JOIN ").append(tablePrefix).append("experience e ON (u.id = e.user_id) ");
+        query.append("SET u.lastlogin = ?, h.mobhealthbar = ?");
+
+        for (String column : SAVED_ABILITY_COLUMNS) {
+            query.append(", c.").append(column).append(" = ?");
+        }
+
+        for (SkillType skill : SAVED_SKILLS) {
+            query.append(", s.").append(skill.name().toLowerCase()).append(" = ?");
+        }
+
+        query.append(", s.total = ?");
+
+        for (SkillType skill : SAVED_SKILLS) {
+            query.append(", e.").append(skill.name().toLowerCase()).append(" = ?");
+        }
+
+        query.append(" WHERE u.id = ?");
+        return query.toString();
+    }
+
+    /**
+     * Build the queries that write the tables of a player one at a time.
+     * Replacing the rows also creates them if they are missing. The columns
+     * of the abilities that don't exist are reset to their default.
+     */
+    private String[] buildTableSaveQueries() {
+        StringBuilder cooldowns = new StringBuilder("REPLACE INTO " + tablePrefix + "cooldowns (user_id");
+        StringBuilder skills = new StringBuilder("REPLACE INTO " + tablePrefix + "skills (user_id");
+        StringBuilder experience = new StringBuilder("REPLACE INTO " + tablePrefix + "experience (user_id");
+
+        for (String column : SAVED_ABILITY_COLUMNS) {
+            cooldowns.append(", ").append(column);
+        }
+
+        for (SkillType skill : SAVED_SKILLS) {
+            skills.append(", ").append(skill.name().toLowerCase());
+            experience.append(", ").append(skill.name().toLowerCase());
+        }
+
+        skills.append(", total");
+
+        cooldowns.append(") VALUES ").append(parameterList(SAVED_ABILITY_COLUMNS.length + 1));
+        skills.append(") VALUES ").append(parameterList(SAVED_SKILLS.length + 2));
+        experience.append(") VALUES ").append(parameterList(SAVED_SKILLS.length + 1));
+
+        return new String[] {
+                "UPDATE " + tablePrefix + "users SET lastlogin = ? WHERE id = ?",
+                "REPLACE INTO " + tablePrefix + "huds (user_id, mobhealthbar) VALUES (?, ?)",
+                cooldowns.toString(),
+                skills.toString(),
+                experience.toString() };
     }
 
     public List<PlayerStat> readLeaderboard(String skillName, int pageNumber, int statsPerPage) {
         List<PlayerStat> stats = new ArrayList<PlayerStat>();
+        Connection connection = getConnection();
 
-        if (checkConnected()) {
-            String query = skillName.equalsIgnoreCase("ALL") ? "taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing" : skillName;
+        if (connection != null) {
+            String query = skillName.equalsIgnoreCase("ALL") ? "total" : skillName;
             ResultSet resultSet = null;
             PreparedStatement statement = null;
 
             try {
-                statement = connection.prepareStatement("SELECT " + query + ", user, NOW() FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON (user_id = id) WHERE " + query + " > 0 ORDER BY " + query + " DESC, user LIMIT ?, ?");
+                // Ties are broken by user_id, which every skills index ends in as the primary key, so the page is read straight off the index
+                statement = connection.prepareStatement("SELECT " + query + ", user FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON (user_id = id) WHERE " + query + " > 0 ORDER BY " + query + " DESC, user_id DESC LIMIT ?, ?");
                 statement.setInt(1, (pageNumber * statsPerPage) - statsPerPage);
                 statement.setInt(2, statsPerPage);
                 resultSet = statement.executeQuery();
@@ -216,14 +506,8 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 printErrors(ex);
             }
             finally {
-                if (statement != null) {
-                    try {
-                        statement.close();
-                    }
-                    catch (SQLException e) {
-                        // Ignore
-                    }
-                }
+                tryClose(statement);
+                release(connection);
             }
         }
 
@@ -232,103 +516,73 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
     public Map<String, Integer> readRank(String playerName) {
         Map<String, Integer> skills = new HashMap<String, Integer>();
+        Connection connection = getConnection();
 
-        if (checkConnected()) {
-            ResultSet resultSet;
+        if (connection != null) {
+            ResultSet resultSet = null;
 
             try {
-                for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
-                    String skillName = skillType.name().toLowerCase();
-                    String sql = "SELECT COUNT(*) AS rank FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE " + skillName + " > 0 " +
-                                 "AND " + skillName + " > (SELECT " + skillName + " FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                                 "WHERE user = ?)";
-
-                    PreparedStatement statement = connection.prepareStatement(sql);
-                    statement.setString(1, playerName);
-                    resultSet = statement.executeQuery();
-
-                    resultSet.next();
-
-                    int rank = resultSet.getInt("rank");
-
-                    sql = "SELECT user, " + skillName + " FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE " + skillName + " > 0 " +
-                          "AND " + skillName + " = (SELECT " + skillName + " FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                          "WHERE user = '" + playerName + "') ORDER BY user";
-
-                    statement.close();
-
-                    statement = connection.prepareStatement(sql);
-                    resultSet = statement.executeQuery();
-
-                    while (resultSet.next()) {
-                        if (resultSet.getString("user").equalsIgnoreCase(playerName)) {
-                            skills.put(skillType.name(), rank + resultSet.getRow());
-                            break;
-                        }
-                    }
-
-                    statement.close();
-                }
-
-                String sql = "SELECT COUNT(*) AS rank FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                        "WHERE taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing > 0 " +
-                        "AND taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing > " +
-                        "(SELECT taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing " +
-                        "FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE user = ?)";
-
-                PreparedStatement statement = connection.prepareStatement(sql);
+                PreparedStatement statement = pool.prepare(connection, rankQuery);
                 statement.setString(1, playerName);
                 resultSet = statement.executeQuery();
 
-                resultSet.next();
-
-                int rank = resultSet.getInt("rank");
+                if (resultSet.next()) {
+                    int column = 1;
 
-                statement.close();
+                    // Players are only ranked in the skills they have levels in
+                    for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+                        int ahead = resultSet.getInt(column++);
 
-                sql = "SELECT user, taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing " +
-                        "FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                        "WHERE taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing > 0 " +
-                        "AND taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing = " +
-                        "(SELECT taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing " +
-                        "FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE user = ?) ORDER BY user";
+                        if (resultSet.getInt(column++) > 0) {
+                            skills.put(skillType.name(), ahead + 1);
+                        }
+                    }
 
-                statement = connection.prepareStatement(sql);
-                statement.setString(1, playerName);
-                resultSet = statement.executeQuery();
+                    int ahead = resultSet.getInt(column++);
 
-                while (resultSet.next()) {
-                    if (resultSet.getString("user").equalsIgnoreCase(playerName)) {
-                        skills.put("ALL", rank + resultSet.getRow());
-                        break;
+                    if (resultSet.getInt(column) > 0) {
+                        skills.put("ALL", ahead + 1);
                     }
                 }
-
-                statement.close();
             }
             catch (SQLException ex) {
                 printErrors(ex);
             }
+            finally {
+                tryClose(resultSet);
+                release(connection);
+            }
         }
 
         return skills;
     }
 
     public void newUser(String playerName) {
-        if (!checkConnected()) {
+        Connection connection = getConnection();
+
+        if (connection == null) {
             return;
         }
 
+        try {
+            newUser(connection, playerName);
+        }
+        finally {
+            release(connection);
+        }
+    }
+
+    private void newUser(Connection connection, String playerName) {
         PreparedStatement statement = null;
 
         try {
-            statement = connection.prepareStatement("INSERT INTO " + tablePrefix + "users (user, lastlogin) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+            statement = connection.prepareStatement("INSERT INTO " + tablePrefix + "users (user, lastlogin) VALUES (?, ?)");
             statement.setString(1, playerName);
             statement.setLong(2, System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR);
             statement.execute();
 
-            int id = readId(playerName);
-            writeMissingRows(id);
+            int id = readId(connection, playerName);
+            writeMissingRows(connection, id);
         }
         catch (SQLException ex) {
             printErrors(ex);
@@ -345,19 +599,61 @@ public final class SQLDatabaseManager implements DatabaseManager {
         }
     }
 
-    public PlayerProfile loadPlayerProfile(String playerName, boolean create) {
-        return loadPlayerProfile(playerName, create, true);
+    /**
+     * Create several users with a single batch per table.
+     *
+     * @param connection The connection to use
+     * @param playerNames The names of the users to create
+     * @return the ids of the users that exist afterwards, keyed by lowercase player name
+     */
+    private Map<String, Integer> newUsers(Connection connection, List<String> playerNames) {
+        PreparedStatement statement = null;
+
+        try {
+            statement = connection.prepareStatement(dialect.getInsertIgnore() + tablePrefix + "users (user, lastlogin) VALUES (?, ?)");
+            long login = System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR;
+
+            for (String playerName : playerNames) {
+                statement.setString(1, playerName);
+                statement.setLong(2, login);
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        }
+        catch (SQLException ex) {
+            printErrors(ex);
+        }
+        finally {
+            tryClose(statement);
+        }
+
+        Map<String, Integer> ids = readIds(connection, playerNames);
+
+        writeMissingRows(connection, ids.values());
+        return ids;
     }
 
-    private PlayerProfile loadPlayerProfile(String playerName, boolean create, boolean retry) {
-        if (!checkConnected()) {
+    public PlayerProfile loadPlayerProfile(String playerName, boolean create) {
+        Connection connection = getConnection();
+
+        if (connection == null) {
             return new PlayerProfile(playerName, false); // return fake profile if not connected
         }
 
-        PreparedStatement statement = null;
+        try {
+            return loadPlayerProfile(connection, playerName, create, true);
+        }
+        finally {
+            release(connection);
+        }
+    }
+
+    private PlayerProfile loadPlayerProfile(Connection connection, String playerName, boolean create, boolean retry) {
+        ResultSet result = null;
 
         try {
-            statement = connection.prepareStatement(
+            PreparedStatement statement = pool.prepare(connection,
                     "SELECT "
                     + "s.taming, s.mining, s.repair, s.woodcutting, s.unarmed, s.herbalism, s.excavation, s.archery, s.swords, s.axes, s.acrobatics, s.fishing, "
                     + "e.taming, e.mining, e.repair, e.woodcutting, e.unarmed, e.herbalism, e.excavation, e.archery, e.swords, e.axes, e.acrobatics, e.fishing, "
@@ -371,31 +667,21 @@ public final class SQLDatabaseManager implements DatabaseManager {
                     + "WHERE u.user = ?");
             statement.setString(1, playerName);
 
-            ResultSet result = statement.executeQuery();
+            result = statement.executeQuery();
 
             if (result.next()) {
                 try {
-                    PlayerProfile ret = loadFromResult(playerName, result);
-                    result.close();
-                    return ret;
+                    return loadFromResult(playerName, result);
                 }
                 catch (SQLException e) {
                 }
             }
-            result.close();
         }
         catch (SQLException ex) {
             printErrors(ex);
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
+            tryClose(result);
         }
 
         // Problem, nothing was returned
@@ -407,30 +693,33 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         // First, read User Id - this is to check for orphans
 
-        int id = readId(playerName);
+        int id = readId(connection, playerName);
 
         if (id == -1) {
             // There is no such user
             if (create) {
-                newUser(playerName);
-                return loadPlayerProfile(playerName, false, false);
+                newUser(connection, playerName);
+                return loadPlayerProfile(connection, playerName, false, false);
             }
 
             // Return unloaded profile if can't create
             return new PlayerProfile(playerName, false);
         }
         // There is such a user
-        writeMissingRows(id);
+        writeMissingRows(connection, id);
         // Retry, and abort on re-failure
-        return loadPlayerProfile(playerName, create, false);
+        return loadPlayerProfile(connection, playerName, create, false);
     }
 
     public void convertUsers(DatabaseManager destination) {
-        if (!checkConnected()) {
+        Connection connection = getConnection();
+
+        if (connection == null) {
             return;
         }
 
         PreparedStatement statement = null;
+        ResultSet result = null;
 
         try {
             statement = connection.prepareStatement(
@@ -438,50 +727,60 @@ public final class SQLDatabaseManager implements DatabaseManager {
                     + "s.taming, s.mining, s.repair, s.woodcutting, s.unarmed, s.herbalism, s.excavation, s.archery, s.swords, s.axes, s.acrobatics, s.fishing, "
                     + "e.taming, e.mining, e.repair, e.woodcutting, e.unarmed, e.herbalism, e.excavation, e.archery, e.swords, e.axes, e.acrobatics, e.fishing, "
                     + "c.taming, c.mining, c.repair, c.woodcutting, c.unarmed, c.herbalism, c.excavation, c.archery, c.swords, c.axes, c.acrobatics, c.blast_mining, "
-                    + "h.mobhealthbar "
+                    + "h.mobhealthbar, u.user "
                     + "FROM " + tablePrefix + "users u "
                     + "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) "
                     + "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) "
                     + "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) "
-                    + "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) "
-                    + "WHERE u.user = ?");
-            List<String> usernames = getStoredUsers();
-            ResultSet result = null;
+                    + "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id)",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+            // Makes the driver stream the rows instead of reading the whole table into memory first
+            statement.setFetchSize(dialect.getStreamingFetchSize());
+            result = statement.executeQuery();
+
+            List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>(conversionBatchSize);
             int convertedUsers = 0;
+            int failedUsers = 0;
             long startMillis = System.currentTimeMillis();
-            for (String playerName : usernames) {
-                statement.setString(1, playerName);
+
+            while (result.next()) {
                 try {
-                    result = statement.executeQuery();
-                    result.next();
-                    destination.saveUser(loadFromResult(playerName, result));
-                    result.close();
+                    batch.add(loadFromResult(result.getString("user"), result).getSnapshot());
                 }
                 catch (SQLException e) {
                     // Ignore
                 }
+
+                if (batch.size() >= conversionBatchSize) {
+                    failedUsers += DatabaseManagerFactory.saveConvertedUsers(destination, batch);
+                    batch = new ArrayList<ProfileSnapshot>(conversionBatchSize);
+                }
+
                 convertedUsers++;
                 Misc.printProgress(convertedUsers, progressInterval, startMillis);
             }
+
+            if (!batch.isEmpty()) {
+                failedUsers += DatabaseManagerFactory.saveConvertedUsers(destination, batch);
+            }
+
+            if (failedUsers > 0) {
+                mcMMO.p.getLogger().severe(failedUsers + " of " + convertedUsers + " users could not be converted.");
+            }
         }
         catch (SQLException e) {
             printErrors(e);
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
+            tryClose(result);
+            tryClose(statement);
+            release(connection);
         }
-
     }
 
     /**
-    * Check connection status and re-establish if dead or stale.
+    * Check whether the database can be reached.
     *
     * If the very first immediate attempt fails, further attempts
     * will be made in progressively larger intervals up to MAX_WAIT
@@ -496,84 +795,17 @@ public final class SQLDatabaseManager implements DatabaseManager {
     * @return the boolean value for whether or not we are connected
     */
     public boolean checkConnected() {
-        boolean isClosed = true;
-        boolean isValid = false;
-        boolean exists = (connection != null);
-
-        // If we're waiting for server to recover then leave early
-        if (nextReconnectTimestamp > 0 && nextReconnectTimestamp > System.nanoTime()) {
-            return false;
-        }
-
-        if (exists) {
-            try {
-                isClosed = connection.isClosed();
-            }
-            catch (SQLException e) {
-                isClosed = true;
-                e.printStackTrace();
-                printErrors(e);
-            }
-
-            if (!isClosed) {
-                try {
-                    isValid = connection.isValid(VALID_TIMEOUT);
-                }
-                catch (SQLException e) {
-                    // Don't print stack trace because it's valid to lose idle connections to the server and have to restart them.
-                    isValid = false;
-                }
-            }
-        }
-
-        // Leave if all ok
-        if (exists && !isClosed && isValid) {
-            // Housekeeping
-            nextReconnectTimestamp = 0;
-            reconnectAttempt = 0;
-            return true;
-        }
-
-        // Cleanup after ourselves for GC and MySQL's sake
-        if (exists && !isClosed) {
-            try {
-                connection.close();
-            }
-            catch (SQLException ex) {
-                // This is a housekeeping exercise, ignore errors
-            }
-        }
-
-        // Try to connect again
-        connect();
+        Connection connection = getConnection();
 
-        // Leave if connection is good
-        try {
-            if (connection != null && !connection.isClosed()) {
-                // Schedule a database save if we really had an outage
-                if (reconnectAttempt > 1) {
-                    new SQLReconnectTask().runTaskLater(mcMMO.p, 5);
-                }
-                nextReconnectTimestamp = 0;
-                reconnectAttempt = 0;
-                return true;
-            }
-        }
-        catch (SQLException e) {
-            // Failed to check isClosed, so presume connection is bad and attempt later
-            e.printStackTrace();
-            printErrors(e);
-        }
-
-        reconnectAttempt++;
-        nextReconnectTimestamp = (long) (System.nanoTime() + Math.min(MAX_WAIT, (reconnectAttempt * SCALING_FACTOR * MIN_WAIT)));
-        return false;
+        release(connection);
+        return connection != null;
     }
 
     public List<String> getStoredUsers() {
         ArrayList<String> users = new ArrayList<String>();
+        Connection connection = getConnection();
 
-        if (checkConnected()) {
+        if (connection != null) {
             Statement stmt = null;
             try {
                 stmt = connection.createStatement();
@@ -587,14 +819,8 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 printErrors(e);
             }
             finally {
-                if (stmt != null) {
-                    try {
-                        stmt.close();
-                    }
-                    catch (SQLException e) {
-                        // Ignore
-                    }
-                }
+                tryClose(stmt);
+                release(connection);
             }
         }
 
@@ -602,40 +828,71 @@ public final class SQLDatabaseManager implements DatabaseManager {
     }
 
     /**
-     * Attempt to connect to the mySQL database.
+     * Borrow a connection from the pool, unless the database is down and
+     * it's not time to try again yet. The connection has to be given back
+     * with {@link #release(Connection)}.
+     *
+     * @return a connection, or null if the database can't be reached
      */
-    private void connect() {
-        connectionString = "jdbc:mysql://" + Config.getInstance().getMySQLServerName() + ":" + Config.getInstance().getMySQLServerPort() + "/" + Config.getInstance().getMySQLDatabaseName();
-
-        try {
-            mcMMO.p.getLogger().info("Attempting connection to MySQL...");
+    private Connection getConnection() {
+        synchronized (reconnectLock) {
+            // If we're waiting for server to recover then leave early
+            if (nextReconnectTimestamp > 0 && nextReconnectTimestamp > System.nanoTime()) {
+                return null;
+            }
+        }
 
-            // Force driver to load if not yet loaded
-            Class.forName("com.mysql.jdbc.Driver");
-            Properties connectionProperties = new Properties();
-            connectionProperties.put("user", Config.getInstance().getMySQLUserName());
-            connectionProperties.put("password", Config.getInstance().getMySQLUserPassword());
-            connectionProperties.put("autoReconnect", "false");
-            connectionProperties.put("maxReconnects", "0");
-            connection = DriverManager.getConnection(connectionString, connectionProperties);
+        Connection connection;
 
-            mcMMO.p.getLogger().info("Connection to MySQL was a success!");
+        try {
+            connection = pool.getConnection();
+        }
+        catch (SQLTimeoutException ex) {
+            // The database is fine, it's just busy
+            mcMMO.p.getLogger().warning(ex.getMessage());
+            return null;
         }
         catch (SQLException ex) {
-            connection = null;
+            synchronized (reconnectLock) {
+                if (reconnectAttempt == 0 || reconnectAttempt >= 11) {
+                    mcMMO.p.getLogger().severe("Connection to " + dialect.getName() + " failed!");
+                    printErrors(ex);
+                }
 
-            if (reconnectAttempt == 0 || reconnectAttempt >= 11) {
-                mcMMO.p.getLogger().severe("Connection to MySQL failed!");
-                printErrors(ex);
+                reconnectAttempt++;
+                nextReconnectTimestamp = (long) (System.nanoTime() + Math.min(MAX_WAIT, (reconnectAttempt * SCALING_FACTOR * MIN_WAIT)));
             }
+
+            return null;
         }
-        catch (ClassNotFoundException ex) {
-            connection = null;
 
-            if (reconnectAttempt == 0 || reconnectAttempt >= 11) {
-                mcMMO.p.getLogger().severe("MySQL database driver not found!");
+        synchronized (reconnectLock) {
+            if (reconnectAttempt > 0) {
+                mcMMO.p.getLogger().info("Connection to " + dialect.getName() + " was a success!");
+            }
+
+            // Schedule a database save if we really had an outage
+            if (reconnectAttempt > 1) {
+                new SQLReconnectTask().runTaskLater(mcMMO.p, 5);
             }
+
+            nextReconnectTimestamp = 0;
+            reconnectAttempt = 0;
         }
+
+        return connection;
+    }
+
+    private void release(Connection connection) {
+        pool.release(connection);
+    }
+
+    /**
+     * Close the connections to the database, for when the server shuts
+     * down or mcMMO is reloaded.
+     */
+    public void close() {
+        pool.close();
     }
 
     /**
@@ -646,6 +903,11 @@ public final class SQLDatabaseManager implements DatabaseManager {
             return;
         }
 
+        if (dialect == SQLDialect.SQLITE) {
+            checkSQLiteStructure();
+            return;
+        }
+
         write("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "users` ("
                 + "`id` int(10) unsigned NOT NULL AUTO_INCREMENT,"
                 + "`user` varchar(40) NOT NULL,"
@@ -687,7 +949,9 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 + "`axes` int(10) unsigned NOT NULL DEFAULT '0',"
                 + "`acrobatics` int(10) unsigned NOT NULL DEFAULT '0',"
                 + "`fishing` int(10) unsigned NOT NULL DEFAULT '0',"
-                + "PRIMARY KEY (`user_id`)) "
+                + "`total` int(10) unsigned NOT NULL DEFAULT '0',"
+                + "PRIMARY KEY (`user_id`),"
+                + "KEY `idx_total` (`total`) USING BTREE) "
                 + "DEFAULT CHARSET=latin1;");
         write("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "experience` ("
                 + "`user_id` int(10) unsigned NOT NULL,"
@@ -706,8 +970,134 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 + "PRIMARY KEY (`user_id`)) "
                 + "DEFAULT CHARSET=latin1;");
 
-        for (DatabaseUpdateType updateType : DatabaseUpdateType.values()) {
-            checkDatabaseStructure(updateType);
+        for (DatabaseUpdateType updateType : DatabaseUpdateType.values()) {
+            checkDatabaseStructure(updateType);
+        }
+    }
+
+    /**
+     * Create the SQLite tables, and import mcmmo.users when they are new.
+     * These tables never had an older layout, so they need no updates.
+     */
+    private void checkSQLiteStructure() {
+        boolean newDatabase = read("SELECT name FROM sqlite_master WHERE type = 'table' AND name = '" + tablePrefix + "users'").isEmpty();
+        StringBuilder skillColumns = new StringBuilder();
+
+        for (SkillType skill : SAVED_SKILLS) {
+            skillColumns.append(", ").append(skill.name().toLowerCase()).append(" INTEGER NOT NULL DEFAULT 0");
+        }
+
+        // Names compare without case, like they do in MySQL
+        write("CREATE TABLE IF NOT EXISTS " + tablePrefix + "users ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "user VARCHAR(40) NOT NULL COLLATE NOCASE UNIQUE, "
+                + "lastlogin INTEGER NOT NULL)");
+        write("CREATE TABLE IF NOT EXISTS " + tablePrefix + "huds ("
+                + "user_id INTEGER PRIMARY KEY, "
+                + "mobhealthbar VARCHAR(50) NOT NULL DEFAULT '" + Config.getInstance().getMobHealthbarDefault() + "')");
+        write("CREATE TABLE IF NOT EXISTS " + tablePrefix + "cooldowns ("
+                + "user_id INTEGER PRIMARY KEY, "
+                + "taming INTEGER NOT NULL DEFAULT 0, "
+                + "mining INTEGER NOT NULL DEFAULT 0, "
+                + "woodcutting INTEGER NOT NULL DEFAULT 0, "
+                + "repair INTEGER NOT NULL DEFAULT 0, "
+                + "unarmed INTEGER NOT NULL DEFAULT 0, "
+                + "herbalism INTEGER NOT NULL DEFAULT 0, "
+                + "excavation INTEGER NOT NULL DEFAULT 0, "
+                + "archery INTEGER NOT NULL DEFAULT 0, "
+                + "swords INTEGER NOT NULL DEFAULT 0, "
+                + "axes INTEGER NOT NULL DEFAULT 0, "
+                + "acrobatics INTEGER NOT NULL DEFAULT 0, "
+                + "blast_mining INTEGER NOT NULL DEFAULT 0)");
+        write("CREATE TABLE IF NOT EXISTS " + tablePrefix + "skills (user_id INTEGER PRIMARY KEY" + skillColumns + ", total INTEGER NOT NULL DEFAULT 0)");
+        write("CREATE TABLE IF NOT EXISTS " + tablePrefix + "experience (user_id INTEGER PRIMARY KEY" + skillColumns + ")");
+
+        for (SkillType skill : SAVED_SKILLS) {
+            String column = skill.name().toLowerCase();
+
+            write("CREATE INDEX IF NOT EXISTS " + tablePrefix + "idx_" + column + " ON " + tablePrefix + "skills (" + column + ")");
+        }
+
+        write("CREATE INDEX IF NOT EXISTS " + tablePrefix + "idx_total ON " + tablePrefix + "skills (total)");
+
+        if (newDatabase) {
+            importTextDatabase();
+        }
+    }
+
+    /**
+     * Import every player from mcmmo.users.
+     */
+    private void importTextDatabase() {
+        if (FlatfileDatabaseManager.findUserFiles().isEmpty()) {
+            return;
+        }
+
+        mcMMO.p.getLogger().info("Migrating mcmmo.users to " + dialect.getName() + "...");
+
+        boolean imported = FlatfileDatabaseManager.importUsers(this);
+        importLastLogins(FlatfileDatabaseManager.findUserFiles());
+
+        if (imported) {
+            mcMMO.p.getLogger().info("Migrated mcmmo.users, it was left as a backup.");
+        }
+        else {
+            mcMMO.p.getLogger().severe("Could not migrate every user from mcmmo.users, see the errors above. It was left as a backup.");
+        }
+    }
+
+    /**
+     * Profiles don't carry the last login time, so copy it from mcmmo.users
+     * separately. Otherwise every imported player would look like they just
+     * logged in.
+     */
+    private void importLastLogins(List<File> usersFiles) {
+        Connection connection = getConnection();
+
+        if (connection == null) {
+            return;
+        }
+
+        PreparedStatement statement = null;
+        FlatfileScanner in = null;
+
+        try {
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement("UPDATE " + tablePrefix + "users SET lastlogin = ? WHERE user = ?");
+
+            for (File usersFile : usersFiles) {
+                in = new FlatfileScanner(usersFile);
+                FlatfileRecord record;
+
+                while ((record = in.nextRecord()) != null) {
+                    try {
+                        statement.setLong(1, record.getLong(LAST_LOGIN_FIELD));
+                    }
+                    catch (RuntimeException e) {
+                        statement.setLong(1, 0);
+                    }
+
+                    statement.setString(2, record.getName());
+                    statement.addBatch();
+                }
+
+                tryClose(in);
+                in = null;
+            }
+
+            statement.executeBatch();
+            connection.commit();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        catch (SQLException ex) {
+            printErrors(ex);
+        }
+        finally {
+            tryClose(in);
+            tryClose(statement);
+            release(connection);
         }
     }
 
@@ -729,7 +1119,8 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 break;
 
             case INDEX:
-                if (read("SHOW INDEX FROM " + tablePrefix + "skills").size() != 13 && checkConnected()) {
+                // Look for one of them by name, the power level index changed how many there are
+                if (read("SHOW INDEX FROM " + tablePrefix + "skills WHERE Key_name = 'idx_taming'").isEmpty() && checkConnected()) {
                     mcMMO.p.getLogger().info("Indexing tables, this may take a while on larger databases");
                     write("ALTER TABLE `" + tablePrefix + "skills` ADD INDEX `idx_taming` (`taming`) USING BTREE, "
                             + "ADD INDEX `idx_mining` (`mining`) USING BTREE, "
@@ -750,6 +1141,10 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 sql = "SELECT * FROM `" + tablePrefix + "huds` ORDER BY `" + tablePrefix + "huds`.`mobhealthbar` ASC LIMIT 0 , 30";
                 break;
 
+            case POWER_LEVEL:
+                sql = "SELECT `total` FROM `" + tablePrefix + "skills` LIMIT 1";
+                break;
+
             case PARTY_NAMES:
                 write("ALTER TABLE `" + tablePrefix + "users` DROP COLUMN `party` ;");
                 return;
@@ -790,15 +1185,18 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 break;
         }
 
+        Connection connection = getConnection();
+
+        if (connection == null) {
+            return;
+        }
+
         ResultSet resultSet = null;
         HashMap<Integer, ArrayList<String>> rows = new HashMap<Integer, ArrayList<String>>();
         PreparedStatement statement = null;
+        boolean outdated = false;
 
         try {
-            if (!checkConnected()) {
-                return;
-            }
-
             statement = connection.prepareStatement(sql);
             resultSet = statement.executeQuery();
 
@@ -813,36 +1211,44 @@ public final class SQLDatabaseManager implements DatabaseManager {
             }
         }
         catch (SQLException ex) {
-            switch (update) {
-                case BLAST_MINING:
-                    mcMMO.p.getLogger().info("Updating mcMMO MySQL tables for Blast Mining...");
-                    write("ALTER TABLE `"+tablePrefix + "cooldowns` ADD `blast_mining` int(32) NOT NULL DEFAULT '0' ;");
-                    break;
-
-                case FISHING:
-                    mcMMO.p.getLogger().info("Updating mcMMO MySQL tables for Fishing...");
-                    write("ALTER TABLE `"+tablePrefix + "skills` ADD `fishing` int(10) NOT NULL DEFAULT '0' ;");
-                    write("ALTER TABLE `"+tablePrefix + "experience` ADD `fishing` int(10) NOT NULL DEFAULT '0' ;");
-                    break;
-
-                case MOB_HEALTHBARS:
-                    mcMMO.p.getLogger().info("Updating mcMMO MySQL tables for mob healthbars...");
-                    write("ALTER TABLE `" + tablePrefix + "huds` ADD `mobhealthbar` varchar(50) NOT NULL DEFAULT '" + Config.getInstance().getMobHealthbarDefault() + "' ;");
-                    break;
-
-                default:
-                    break;
-            }
+            outdated = true;
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore the error, we're leaving
-                }
-            }
+            tryClose(statement);
+            release(connection);
+        }
+
+        if (!outdated) {
+            return;
+        }
+
+        // The writes each borrow a connection, so they wait until the check has released its own
+        switch (update) {
+            case BLAST_MINING:
+                mcMMO.p.getLogger().info("Updating mcMMO MySQL tables for Blast Mining...");
+                write("ALTER TABLE `"+tablePrefix + "cooldowns` ADD `blast_mining` int(32) NOT NULL DEFAULT '0' ;");
+                break;
+
+            case FISHING:
+                mcMMO.p.getLogger().info("Updating mcMMO MySQL tables for Fishing...");
+                write("ALTER TABLE `"+tablePrefix + "skills` ADD `fishing` int(10) NOT NULL DEFAULT '0' ;");
+                write("ALTER TABLE `"+tablePrefix + "experience` ADD `fishing` int(10) NOT NULL DEFAULT '0' ;");
+                break;
+
+            case MOB_HEALTHBARS:
+                mcMMO.p.getLogger().info("Updating mcMMO MySQL tables for mob healthbars...");
+                write("ALTER TABLE `" + tablePrefix + "huds` ADD `mobhealthbar` varchar(50) NOT NULL DEFAULT '" + Config.getInstance().getMobHealthbarDefault() + "' ;");
+                break;
+
+            case POWER_LEVEL:
+                mcMMO.p.getLogger().info("Updating mcMMO MySQL tables for power level leaderboards, this may take a while on larger databases...");
+                write("ALTER TABLE `" + tablePrefix + "skills` ADD `total` int(10) unsigned NOT NULL DEFAULT '0' ;");
+                write("UPDATE `" + tablePrefix + "skills` SET `total` = taming+mining+woodcutting+repair+unarmed+herbalism+excavation+archery+swords+axes+acrobatics+fishing ;");
+                write("ALTER TABLE `" + tablePrefix + "skills` ADD INDEX `idx_total` (`total`) USING BTREE ;");
+                break;
+
+            default:
+                break;
         }
     }
 
@@ -853,7 +1259,9 @@ public final class SQLDatabaseManager implements DatabaseManager {
      * @return true if the query was successfully written, false otherwise.
      */
     private boolean write(String sql) {
-        if (!checkConnected()) {
+        Connection connection = getConnection();
+
+        if (connection == null) {
             return false;
         }
 
@@ -870,49 +1278,9 @@ public final class SQLDatabaseManager implements DatabaseManager {
             return false;
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
-        }
-    }
-
-    /**
-     * Returns the number of rows affected by either a DELETE or UPDATE query
-     *
-     * @param sql SQL query to execute
-     * @return the number of rows affected
-     */
-    private int update(String sql) {
-        int rows = 0;
-
-        if (checkConnected()) {
-            PreparedStatement statement = null;
-
-            try {
-                statement = connection.prepareStatement(sql);
-                rows = statement.executeUpdate();
-            }
-            catch (SQLException ex) {
-                printErrors(ex);
-            }
-            finally {
-                if (statement != null) {
-                    try {
-                        statement.close();
-                    }
-                    catch (SQLException e) {
-                        // Ignore
-                    }
-                }
-            }
+            tryClose(statement);
+            release(connection);
         }
-
-        return rows;
     }
 
     /**
@@ -923,8 +1291,9 @@ public final class SQLDatabaseManager implements DatabaseManager {
      */
     private HashMap<Integer, ArrayList<String>> read(String sql) {
         HashMap<Integer, ArrayList<String>> rows = new HashMap<Integer, ArrayList<String>>();
+        Connection connection = getConnection();
 
-        if (checkConnected()) {
+        if (connection != null) {
             PreparedStatement statement = null;
             ResultSet resultSet;
 
@@ -946,14 +1315,8 @@ public final class SQLDatabaseManager implements DatabaseManager {
                 printErrors(ex);
             }
             finally {
-                if (statement != null) {
-                    try {
-                        statement.close();
-                    }
-                    catch (SQLException e) {
-                        // Ignore
-                    }
-                }
+                tryClose(statement);
+                release(connection);
             }
         }
 
@@ -968,139 +1331,188 @@ public final class SQLDatabaseManager implements DatabaseManager {
      */
     private int readInt(PreparedStatement statement) {
         int result = -1;
+        ResultSet resultSet = null;
 
-        if (checkConnected()) {
-            ResultSet resultSet = null;
-
-            try {
-                resultSet = statement.executeQuery();
+        try {
+            resultSet = statement.executeQuery();
 
-                if (resultSet.next()) {
-                    result = resultSet.getInt(1);
-                }
-            }
-            catch (SQLException ex) {
-                printErrors(ex);
-            }
-            finally {
-                if (statement != null) {
-                    try {
-                        statement.close();
-                    }
-                    catch (SQLException e) {
-                        // Ignore
-                    }
-                }
+            if (resultSet.next()) {
+                result = resultSet.getInt(1);
             }
         }
+        catch (SQLException ex) {
+            printErrors(ex);
+        }
+        finally {
+            tryClose(resultSet);
+        }
 
         return result;
     }
 
-    private void writeMissingRows(int id) {
+    private void writeMissingRows(Connection connection, int id) {
+        writeMissingRows(connection, Collections.singletonList(id));
+    }
+
+    /**
+     * Add the rows missing from the experience, skills, cooldowns and huds
+     * tables for several users, with a single batch per table.
+     *
+     * @param connection The connection to use
+     * @param ids The database ids of the users
+     */
+    private void writeMissingRows(Connection connection, Collection<Integer> ids) {
+        String[] queries = {
+                dialect.getInsertIgnore() + tablePrefix + "experience (user_id) VALUES (?)",
+                dialect.getInsertIgnore() + tablePrefix + "skills (user_id) VALUES (?)",
+                dialect.getInsertIgnore() + tablePrefix + "cooldowns (user_id) VALUES (?)",
+                dialect.getInsertIgnore() + tablePrefix + "huds (user_id, mobhealthbar) VALUES (? ,'" + Config.getInstance().getMobHealthbarDefault().name() + "')" };
+
+        if (ids.isEmpty()) {
+            return;
+        }
+
         PreparedStatement statement = null;
 
         try {
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "experience (user_id) VALUES (?)");
-            statement.setInt(1, id);
-            statement.execute();
-            statement.close();
-
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "skills (user_id) VALUES (?)");
-            statement.setInt(1, id);
-            statement.execute();
-            statement.close();
+            for (String query : queries) {
+                statement = connection.prepareStatement(query);
 
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "cooldowns (user_id) VALUES (?)");
-            statement.setInt(1, id);
-            statement.execute();
-            statement.close();
+                for (int id : ids) {
+                    statement.setInt(1, id);
+                    statement.addBatch();
+                }
 
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "huds (user_id, mobhealthbar) VALUES (? ,'" + Config.getInstance().getMobHealthbarDefault().name() + "')");
-            statement.setInt(1, id);
-            statement.execute();
-            statement.close();
+                statement.executeBatch();
+                statement.close();
+            }
         }
         catch (SQLException ex) {
             printErrors(ex);
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
+            tryClose(statement);
         }
     }
 
-    private void processPurge(Collection<ArrayList<String>> usernames) {
-        for (ArrayList<String> user : usernames) {
-            Misc.profileCleanup(user.get(0));
-        }
+    /**
+     * Remove every user without a single level from the database.
+     *
+     * @return the names of the users removed
+     */
+    List<String> removePowerlessUsers() {
+        return purgeUsers("SELECT u.id, u.user FROM " + tablePrefix + "users u JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) WHERE s.total = 0");
     }
 
-    private boolean saveIntegers(String sql, int... args) {
+    /**
+     * Remove every user picked out by a query, a chunk at a time so no
+     * single statement locks the tables for long.
+     *
+     * @param query Query returning the id and the name of the users to remove
+     * @return the names of the users removed
+     */
+    private List<String> purgeUsers(String query) {
+        List<Integer> ids = new ArrayList<Integer>();
+        List<String> playerNames = new ArrayList<String>();
+        Connection connection = getConnection();
+
+        if (connection == null) {
+            return playerNames;
+        }
+
         PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        int purged = 0;
 
         try {
-            statement = connection.prepareStatement(sql);
-            int i = 1;
+            statement = connection.prepareStatement(query);
+            resultSet = statement.executeQuery();
 
-            for (int arg : args) {
-                statement.setInt(i++, arg);
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt(1));
+                playerNames.add(resultSet.getString(2));
             }
 
-            statement.execute();
-            return true;
+            resultSet.close();
+            statement.close();
+
+            for (int start = 0; start < ids.size(); start += MAX_PARAMETERS) {
+                int end = Math.min(start + MAX_PARAMETERS, ids.size());
+
+                deleteUsers(connection, ids.subList(start, end));
+                purged = end;
+            }
         }
         catch (SQLException ex) {
             printErrors(ex);
-            return false;
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
+            tryClose(resultSet);
+            tryClose(statement);
+            release(connection);
         }
+
+        return playerNames.subList(0, purged);
     }
 
-    private boolean saveLongs(String sql, int id, long... args) {
+    /**
+     * Remove users from every table, in one transaction.
+     *
+     * @param connection The connection to use
+     * @param ids The database ids of the users, at most {@link #MAX_PARAMETERS}
+     */
+    private void deleteUsers(Connection connection, List<Integer> ids) throws SQLException {
+        String in = parameterList(ids.size());
+        String[] queries = {
+                "DELETE FROM " + tablePrefix + "experience WHERE user_id IN " + in,
+                "DELETE FROM " + tablePrefix + "huds WHERE user_id IN " + in,
+                "DELETE FROM " + tablePrefix + "skills WHERE user_id IN " + in,
+                "DELETE FROM " + tablePrefix + "cooldowns WHERE user_id IN " + in,
+                "DELETE FROM " + tablePrefix + "users WHERE id IN " + in };
+
+        boolean autoCommit = connection.getAutoCommit();
         PreparedStatement statement = null;
 
+        connection.setAutoCommit(false);
+
         try {
-            statement = connection.prepareStatement(sql);
-            int i = 1;
+            for (String query : queries) {
+                statement = connection.prepareStatement(query);
+
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setInt(i + 1, ids.get(i));
+                }
 
-            for (long arg : args) {
-                statement.setLong(i++, arg);
+                statement.executeUpdate();
+                statement.close();
             }
 
-            statement.setInt(i++, id);
-            statement.execute();
-            return true;
+            connection.commit();
         }
         catch (SQLException ex) {
-            printErrors(ex);
-            return false;
+            connection.rollback();
+            throw ex;
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
+            tryClose(statement);
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Build a parenthesized list of query parameters.
+     *
+     * @param count How many parameters to list
+     * @return the list, such as "(?, ?, ?)"
+     */
+    private String parameterList(int count) {
+        StringBuilder list = new StringBuilder("(?");
+
+        for (int i = 1; i < count; i++) {
+            list.append(", ?");
         }
+
+        return list.append(")").toString();
     }
 
     /**
@@ -1109,11 +1521,11 @@ public final class SQLDatabaseManager implements DatabaseManager {
      * @param playerName The name of the user to retrieve the id for
      * @return the requested id or -1 if not found
      */
-    private int readId(String playerName) {
+    private int readId(Connection connection, String playerName) {
         int id = -1;
 
         try {
-            PreparedStatement statement = connection.prepareStatement("SELECT id FROM " + tablePrefix + "users WHERE user = ?");
+            PreparedStatement statement = pool.prepare(connection, "SELECT id FROM " + tablePrefix + "users WHERE user = ?");
             statement.setString(1, playerName);
             id = readInt(statement);
         }
@@ -1124,55 +1536,86 @@ public final class SQLDatabaseManager implements DatabaseManager {
         return id;
     }
 
-    private boolean saveLogin(int id, long login) {
+    /**
+     * Retrieve the database ids of several players in a single query
+     *
+     * @param playerNames The names of the users to retrieve the ids for
+     * @return the ids that were found, keyed by lowercase player name
+     */
+    private Map<String, Integer> readIds(Connection connection, List<String> playerNames) {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+
+        if (playerNames.isEmpty()) {
+            return ids;
+        }
+
         PreparedStatement statement = null;
+        ResultSet resultSet = null;
 
         try {
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "users SET lastlogin = ? WHERE id = ?");
-            statement.setLong(1, login);
-            statement.setInt(2, id);
-            statement.execute();
-            return true;
+            for (int start = 0; start < playerNames.size(); start += MAX_PARAMETERS) {
+                List<String> chunk = playerNames.subList(start, Math.min(start + MAX_PARAMETERS, playerNames.size()));
+
+                statement = connection.prepareStatement("SELECT id, user FROM " + tablePrefix + "users WHERE user IN " + parameterList(chunk.size()));
+
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+
+                resultSet = statement.executeQuery();
+
+                while (resultSet.next()) {
+                    ids.put(resultSet.getString(2).toLowerCase(), resultSet.getInt(1));
+                }
+
+                resultSet.close();
+                statement.close();
+            }
         }
         catch (SQLException ex) {
             printErrors(ex);
-            return false;
         }
         finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
+            tryClose(resultSet);
+            tryClose(statement);
         }
+
+        return ids;
     }
 
-    private boolean saveHuds(int userId, String mobHealthBar) {
-        PreparedStatement statement = null;
+    private void tryClose(Statement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        }
+        catch (SQLException e) {
+            // Ignore
+        }
+    }
 
+    private void tryClose(ResultSet resultSet) {
+        if (resultSet == null) {
+            return;
+        }
         try {
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "huds SET mobhealthbar = ? WHERE user_id = ?");
-            statement.setString(1, mobHealthBar);
-            statement.setInt(2, userId);
-            statement.execute();
-            return true;
+            resultSet.close();
         }
-        catch (SQLException ex) {
-            printErrors(ex);
-            return false;
+        catch (SQLException e) {
+            // Ignore
         }
-        finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException e) {
-                    // Ignore
-                }
-            }
+    }
+
+    private void tryClose(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -1227,7 +1670,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
         skillsDATS.put(AbilityType.BLAST_MINING, result.getInt(OFFSET_DATS + 12));
 
         try {
-            mobHealthbarType = MobHealthbarType.valueOf(result.getString(OFFSET_OTHER + 2));
+            mobHealthbarType = MobHealthbarType.valueOf(result.getString(OFFSET_OTHER + 1));
         }
         catch (Exception e) {
             mobHealthbarType = Config.getInstance().getMobHealthbarDefault();
@@ -1243,6 +1686,6 @@ public final class SQLDatabaseManager implements DatabaseManager {
     }
 
     public DatabaseType getDatabaseType() {
-        return DatabaseType.SQL;
+        return dialect.getDatabaseType();
     }
 }
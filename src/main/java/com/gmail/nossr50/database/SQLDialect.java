@@ -0,0 +1,136 @@
+package com.gmail.nossr50.database;
+
+import java.io.File;
+import java.util.Properties;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.datatypes.database.DatabaseType;
+
+/**
+ * The databases {@link SQLDatabaseManager} can talk to, and what differs
+ * between them. Everything else uses the same tables and queries.
+ */
+enum SQLDialect {
+    /**
+     * A MySQL server, set up in the MySQL section of config.yml.
+     */
+    MYSQL("MySQL", DatabaseType.SQL) {
+        @Override
+        SQLConnectionPool createPool() {
+            String connectionString = "jdbc:mysql://" + Config.getInstance().getMySQLServerName() + ":" + Config.getInstance().getMySQLServerPort() + "/" + Config.getInstance().getMySQLDatabaseName();
+
+            loadDriver("com.mysql.jdbc.Driver");
+
+            Properties connectionProperties = new Properties();
+            connectionProperties.put("user", Config.getInstance().getMySQLUserName());
+            connectionProperties.put("password", Config.getInstance().getMySQLUserPassword());
+            connectionProperties.put("autoReconnect", "false");
+            connectionProperties.put("maxReconnects", "0");
+            // Send a batch of saves in one go, and don't ask the server for session state the driver already knows
+            connectionProperties.put("rewriteBatchedStatements", "true");
+            connectionProperties.put("useLocalSessionState", "true");
+
+            return new SQLConnectionPool(connectionString, connectionProperties, Config.getInstance().getMySQLMaxConnections());
+        }
+
+        @Override
+        String getTablePrefix() {
+            return Config.getInstance().getMySQLTablePrefix();
+        }
+
+        @Override
+        String getInsertIgnore() {
+            return "INSERT IGNORE INTO ";
+        }
+
+        @Override
+        int getStreamingFetchSize() {
+            // Connector/J only streams the rows of a result with exactly this fetch size
+            return Integer.MIN_VALUE;
+        }
+    },
+
+    /**
+     * A SQLite file in the flatfile directory, for servers without a MySQL
+     * server. The driver ships with CraftBukkit.
+     */
+    SQLITE("SQLite", DatabaseType.SQLITE) {
+        @Override
+        SQLConnectionPool createPool() {
+            File databaseFile = new File(mcMMO.getFlatFileDirectory(), "mcmmo.db");
+
+            databaseFile.getParentFile().mkdirs();
+            loadDriver("org.sqlite.JDBC");
+
+            Properties connectionProperties = new Properties();
+            // Let loads read while a save is being written, and only sync the file on checkpoints
+            connectionProperties.put("journal_mode", "WAL");
+            connectionProperties.put("synchronous", "NORMAL");
+
+            // SQLite only writes one transaction at a time anyway
+            return new SQLConnectionPool("jdbc:sqlite:" + databaseFile.getPath(), connectionProperties, 1);
+        }
+
+        @Override
+        String getTablePrefix() {
+            // The tables have the file to themselves
+            return "";
+        }
+
+        @Override
+        String getInsertIgnore() {
+            return "INSERT OR IGNORE INTO ";
+        }
+
+        @Override
+        int getStreamingFetchSize() {
+            // Rows are always read one at a time
+            return 0;
+        }
+    };
+
+    private final String name;
+    private final DatabaseType databaseType;
+
+    private SQLDialect(String name, DatabaseType databaseType) {
+        this.name = name;
+        this.databaseType = databaseType;
+    }
+
+    /**
+     * Load the JDBC driver and set up the pool of connections to the database.
+     */
+    abstract SQLConnectionPool createPool();
+
+    abstract String getTablePrefix();
+
+    /**
+     * Get the start of an insert that skips rows whose key already exists.
+     */
+    abstract String getInsertIgnore();
+
+    /**
+     * Get the fetch size that makes the driver stream a large result
+     * instead of reading all of it into memory first.
+     */
+    abstract int getStreamingFetchSize();
+
+    String getName() {
+        return name;
+    }
+
+    DatabaseType getDatabaseType() {
+        return databaseType;
+    }
+
+    private static void loadDriver(String driver) {
+        try {
+            // Force driver to load if not yet loaded
+            Class.forName(driver);
+        }
+        catch (ClassNotFoundException ex) {
+            mcMMO.p.getLogger().severe("Database driver " + driver + " not found!");
+        }
+    }
+}
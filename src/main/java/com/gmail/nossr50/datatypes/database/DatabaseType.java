@@ -2,7 +2,9 @@ package com.gmail.nossr50.datatypes.database;
 
 public enum DatabaseType {
     FLATFILE,
+    BINARY,
     SQL,
+    SQLITE,
     CUSTOM;
 
     public static DatabaseType getDatabaseType(String typeName) {
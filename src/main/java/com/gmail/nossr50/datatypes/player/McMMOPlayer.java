@@ -1,22 +1,23 @@
 package com.gmail.nossr50.datatypes.player;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.bukkit.GameMode;
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.Server;
 import org.bukkit.Sound;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.config.AdvancedConfig;
 import com.gmail.nossr50.config.Config;
 import com.gmail.nossr50.config.experience.ExperienceConfig;
+import com.gmail.nossr50.database.OfflineProfileBuffer.ProfileChange;
 import com.gmail.nossr50.datatypes.mods.CustomTool;
 import com.gmail.nossr50.datatypes.party.Party;
 import com.gmail.nossr50.datatypes.skills.AbilityType;
@@ -25,6 +26,7 @@ import com.gmail.nossr50.datatypes.skills.ToolType;
 import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.party.PartyManager;
 import com.gmail.nossr50.party.ShareHandler;
+import com.gmail.nossr50.runnables.player.PlayerProfileLoadingTask;
 import com.gmail.nossr50.runnables.skills.AbilityDisableTask;
 import com.gmail.nossr50.runnables.skills.ToolLowerTask;
 import com.gmail.nossr50.skills.SkillManager;
@@ -52,10 +54,17 @@ import com.gmail.nossr50.util.skills.ParticleEffectUtils;
 import com.gmail.nossr50.util.skills.PerksUtils;
 import com.gmail.nossr50.util.skills.SkillUtils;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 public class McMMOPlayer {
     private Player        player;
     private PlayerProfile profile;
 
+    private final SettableFuture<PlayerProfile> profileFuture = SettableFuture.create();
+    // Changes made before the profile was loaded, replayed onto it once it is
+    private final List<ProfileChange> pendingChanges = new ArrayList<ProfileChange>();
+
     /*
      * Since SkillManager isn't a "polymorphic type" we may prefer to have one field for each of our
      * class inheriting from SkillManager. This would also prevent the need for casting.
@@ -104,7 +113,7 @@ public class McMMOPlayer {
         String playerName = player.getName();
 
         this.player = player;
-        profile = mcMMO.getDatabaseManager().loadPlayerProfile(playerName, true);
+        profile = new PlayerProfile(playerName); // Unloaded until the PlayerProfileLoadingTask is done
         party = PartyManager.getPlayerParty(playerName);
 
         /*
@@ -132,68 +141,49 @@ public class McMMOPlayer {
             toolATS.put(toolType, 0);
         }
 
-        if (!profile.isLoaded()) {
-            mcMMO.p.getLogger().warning("Unable to load the PlayerProfile for " + playerName + ". Will retry over the next several seconds.");
-            new RetryProfileLoadingTask().runTaskTimerAsynchronously(mcMMO.p, 11L, 31L);
-        }
+        new PlayerProfileLoadingTask(this).runTaskAsynchronously(mcMMO.p);
     }
 
-    private class RetryProfileLoadingTask extends BukkitRunnable {
-        private static final int MAX_TRIES = 5;
-        private final String playerName = McMMOPlayer.this.player.getName();
-        private int attempt = 0;
-
-        // WARNING: ASYNC TASK
-        // DO NOT MODIFY THE McMMOPLAYER FROM THIS CODE
-        @Override
-        public void run() {
-            // Quit if they logged out
-            if (!player.isOnline()) {
-                mcMMO.p.getLogger().info("Aborting profile loading recovery for " + playerName + " - player logged out");
-                this.cancel();
-                return;
-            }
-
-            // Send the message that we're doing the recovery
-            if (attempt == 0) {
-                player.sendMessage(LocaleLoader.getString("Recovery.Notice"));
-            }
-
-            // Increment attempt counter and try
-            attempt++;
-            PlayerProfile profile = mcMMO.getDatabaseManager().loadPlayerProfile(playerName, true);
-            // If successful, schedule the apply
-            if (profile.isLoaded()) {
-                new ApplySuccessfulProfile(profile).runTask(mcMMO.p);
-                player.sendMessage(LocaleLoader.getString("Recovery.Success"));
-                this.cancel();
-                return;
-            }
-
-            // If we've failed five times, give up
-            if (attempt >= MAX_TRIES) {
-                mcMMO.p.getLogger().severe("Giving up on attempting to load the PlayerProfile for " + playerName);
-                mcMMO.p.getServer().broadcast(LocaleLoader.getString("Recovery.AdminFailureNotice", playerName), Server.BROADCAST_CHANNEL_ADMINISTRATIVE);
-                player.sendMessage(LocaleLoader.getString("Recovery.Failure").split("\n"));
-                this.cancel();
-                return;
-            }
+    /**
+     * Start using a freshly loaded profile. Must be called from the main thread.
+     *
+     * @param profile The loaded profile
+     */
+    public void applyProfile(PlayerProfile profile) {
+        for (ProfileChange change : pendingChanges) {
+            change.apply(profile);
         }
-    }
 
-    private class ApplySuccessfulProfile extends BukkitRunnable {
-        private final PlayerProfile profile;
+        pendingChanges.clear();
+        this.profile = profile;
+        profileFuture.set(profile);
+    }
 
-        private ApplySuccessfulProfile(PlayerProfile profile) {
-            this.profile = profile;
+    /**
+     * Change the profile of the player, or the profile they get once it is
+     * loaded if it isn't yet, so that the change isn't made to the
+     * placeholder and lost. Must be called from the main thread.
+     *
+     * @param change The change to make
+     */
+    public void changeProfile(ProfileChange change) {
+        if (profile.isLoaded()) {
+            change.apply(profile);
+            return;
         }
 
-        // Synchronized task
-        // No database access permitted
-        @Override
-        public void run() {
-            McMMOPlayer.this.profile = profile;
-        }
+        pendingChanges.add(change);
+    }
+
+    /**
+     * Get the future that completes once the profile of the player was
+     * loaded. Until then, {@link #getProfile()} returns an unloaded profile
+     * and no XP is gained.
+     *
+     * @return the future of the loaded profile
+     */
+    public ListenableFuture<PlayerProfile> getProfileFuture() {
+        return profileFuture;
     }
 
     public AcrobaticsManager getAcrobaticsManager() {
@@ -535,7 +525,8 @@ public class McMMOPlayer {
      * @param xp Experience amount to process
      */
     public void beginXpGain(SkillType skillType, float xp) {
-        if (xp == 0) {
+        // Nothing to gain until the profile is loaded
+        if (xp == 0 || !profile.isLoaded()) {
             return;
         }
 
@@ -578,7 +569,7 @@ public class McMMOPlayer {
      * @param xp Experience amount to add
      */
     public void applyXpGain(SkillType skillType, float xp) {
-        if (!Permissions.skillEnabled(player, skillType)) {
+        if (!profile.isLoaded() || !Permissions.skillEnabled(player, skillType)) {
             return;
         }
 
@@ -1,6 +1,9 @@
 package com.gmail.nossr50.datatypes.player;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -65,17 +68,48 @@ public class PlayerProfile {
         loaded = true;
     }
 
+    /**
+     * Queue this profile to be saved, if it changed since it was last saved.
+     */
     public void save() {
         if (!changed || !loaded) {
             return;
         }
 
-        changed = !mcMMO.getDatabaseManager().saveUser(this);
-        if (changed) {
-            mcMMO.p.getLogger().warning("PlayerProfile for " + playerName + " failed to save");
+        mcMMO.getProfileSaveQueue().add(getSnapshot());
+        changed = false;
+    }
+
+    /**
+     * Queue several profiles to be saved together.
+     *
+     * @param profiles The profiles to save, unchanged or unloaded ones are skipped
+     */
+    public static void save(Collection<PlayerProfile> profiles) {
+        List<ProfileSnapshot> snapshots = new ArrayList<ProfileSnapshot>(profiles.size());
+
+        for (PlayerProfile profile : profiles) {
+            if (profile.changed && profile.loaded) {
+                snapshots.add(profile.getSnapshot());
+                profile.changed = false;
+            }
+        }
+
+        if (!snapshots.isEmpty()) {
+            mcMMO.getProfileSaveQueue().addAll(snapshots);
         }
     }
 
+    /**
+     * Copy the current state of this profile, so that it can be saved from
+     * another thread while this one keeps changing.
+     *
+     * @return an immutable snapshot of this profile
+     */
+    public ProfileSnapshot getSnapshot() {
+        return new ProfileSnapshot(playerName, skills, skillsXp, skillsDATS, mobHealthbarType);
+    }
+
     public String getPlayerName() {
         return playerName;
     }
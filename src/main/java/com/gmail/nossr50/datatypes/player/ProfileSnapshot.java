@@ -0,0 +1,96 @@
+package com.gmail.nossr50.datatypes.player;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.gmail.nossr50.datatypes.MobHealthbarType;
+import com.gmail.nossr50.datatypes.skills.AbilityType;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+
+/**
+ * An immutable copy of the data of a {@link PlayerProfile}, as it was when
+ * the profile was saved.
+ * <p/>
+ * Levels, experience and cooldowns are kept in plain arrays indexed by the
+ * ordinal of the skill or ability, so taking a snapshot is a few array
+ * copies and it can be read from any thread while the live profile keeps
+ * changing on the main thread.
+ */
+public final class ProfileSnapshot {
+    private static final SkillType[] SKILLS = SkillType.values();
+    private static final AbilityType[] ABILITIES = AbilityType.values();
+
+    private final String playerName;
+    private final MobHealthbarType mobHealthbarType;
+
+    private final int[]   skills     = new int[SKILLS.length];     // Level by skill ordinal
+    private final float[] skillsXp   = new float[SKILLS.length];   // XP by skill ordinal
+    private final int[]   skillsDATS = new int[ABILITIES.length];  // Cooldown by ability ordinal
+
+    ProfileSnapshot(String playerName, Map<SkillType, Integer> skills, Map<SkillType, Float> skillsXp, Map<AbilityType, Integer> skillsDATS, MobHealthbarType mobHealthbarType) {
+        this.playerName = playerName;
+        this.mobHealthbarType = mobHealthbarType;
+
+        for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+            this.skills[skillType.ordinal()] = skills.get(skillType);
+            this.skillsXp[skillType.ordinal()] = skillsXp.get(skillType);
+        }
+
+        for (AbilityType abilityType : ABILITIES) {
+            this.skillsDATS[abilityType.ordinal()] = skillsDATS.get(abilityType);
+        }
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public MobHealthbarType getMobHealthbarType() {
+        return mobHealthbarType;
+    }
+
+    /**
+     * Get the level of a skill. Child skills are not stored and always
+     * return 0.
+     *
+     * @param skillType Skill to get the level of
+     * @return the level of the skill
+     */
+    public int getSkillLevel(SkillType skillType) {
+        return skills[skillType.ordinal()];
+    }
+
+    public float getSkillXpLevelRaw(SkillType skillType) {
+        return skillsXp[skillType.ordinal()];
+    }
+
+    public int getSkillXpLevel(SkillType skillType) {
+        return (int) Math.floor(skillsXp[skillType.ordinal()]);
+    }
+
+    public long getSkillDATS(AbilityType abilityType) {
+        return skillsDATS[abilityType.ordinal()];
+    }
+
+    /**
+     * Turn this snapshot back into a loaded profile.
+     *
+     * @return a new PlayerProfile holding the data of this snapshot
+     */
+    public PlayerProfile toProfile() {
+        Map<SkillType, Integer> skillMap = new HashMap<SkillType, Integer>();
+        Map<SkillType, Float> skillXpMap = new HashMap<SkillType, Float>();
+        Map<AbilityType, Integer> skillDATSMap = new HashMap<AbilityType, Integer>();
+
+        for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+            skillMap.put(skillType, skills[skillType.ordinal()]);
+            skillXpMap.put(skillType, skillsXp[skillType.ordinal()]);
+        }
+
+        for (AbilityType abilityType : ABILITIES) {
+            skillDATSMap.put(abilityType, skillsDATS[abilityType.ordinal()]);
+        }
+
+        return new PlayerProfile(playerName, skillMap, skillXpMap, skillDATSMap, mobHealthbarType);
+    }
+}
@@ -14,6 +14,7 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerDropItemEvent;
@@ -345,6 +346,23 @@ public class PlayerListener implements Listener {
         UserManager.remove(player.getName());
     }
 
+    /**
+     * Monitor AsyncPlayerPreLoginEvents.
+     * <p>
+     * These events are monitored for the purpose of loading the profile of
+     * the player off the main thread, before they join.
+     *
+     * @param event The event to monitor
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        UserManager.warmupProfile(event.getName());
+    }
+
     /**
      * Monitor PlayerJoinEvents.
      * <p>
@@ -21,6 +21,11 @@ import com.gmail.nossr50.config.mods.CustomToolConfig;
 import com.gmail.nossr50.config.treasure.TreasureConfig;
 import com.gmail.nossr50.database.DatabaseManager;
 import com.gmail.nossr50.database.DatabaseManagerFactory;
+import com.gmail.nossr50.database.FlatfileDatabaseManager;
+import com.gmail.nossr50.database.OfflineProfileBuffer;
+import com.gmail.nossr50.database.ProfileCache;
+import com.gmail.nossr50.database.ProfileSaveQueue;
+import com.gmail.nossr50.database.SQLDatabaseManager;
 import com.gmail.nossr50.listeners.BlockListener;
 import com.gmail.nossr50.listeners.EntityListener;
 import com.gmail.nossr50.listeners.InventoryListener;
@@ -31,6 +36,7 @@ import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.metrics.MetricsManager;
 import com.gmail.nossr50.party.PartyManager;
 import com.gmail.nossr50.runnables.SaveTimerTask;
+import com.gmail.nossr50.runnables.database.OfflineProfileFlushTask;
 import com.gmail.nossr50.runnables.database.UserPurgeTask;
 import com.gmail.nossr50.runnables.party.PartyAutoKickTask;
 import com.gmail.nossr50.runnables.skills.BleedTimerTask;
@@ -56,10 +62,13 @@ import net.shatteredlands.shatt.backup.ZipLibrary;
 
 public class mcMMO extends JavaPlugin {
     /* Managers */
-    private static ChunkManager      placeStore;
-    private static RepairableManager repairableManager;
-    private static DatabaseManager   databaseManager;
-    private static FormulaManager    formulaManager;
+    private static ChunkManager         placeStore;
+    private static RepairableManager    repairableManager;
+    private static DatabaseManager      databaseManager;
+    private static ProfileSaveQueue     profileSaveQueue;
+    private static ProfileCache         profileCache;
+    private static OfflineProfileBuffer offlineProfileBuffer;
+    private static FormulaManager       formulaManager;
 
     /* File Paths */
     private static String mainDirectory;
@@ -142,6 +151,10 @@ public class mcMMO extends JavaPlugin {
             }
 
             databaseManager = DatabaseManagerFactory.getDatabaseManager();
+            profileCache = new ProfileCache();
+            offlineProfileBuffer = new OfflineProfileBuffer();
+            profileSaveQueue = new ProfileSaveQueue();
+            profileSaveQueue.start();
 
             registerEvents();
             registerCustomRecipes();
@@ -190,6 +203,16 @@ public class mcMMO extends JavaPlugin {
     public void onDisable() {
         try {
             UserManager.saveAll();      // Make sure to save player information if the server shuts down
+            offlineProfileBuffer.flush(); // Along with changes made to offline players
+            profileSaveQueue.shutdown(); // Wait a bit for the queued profiles to be written
+
+            if (databaseManager instanceof FlatfileDatabaseManager) {
+                ((FlatfileDatabaseManager) databaseManager).close(); // Fold the save journal into the users files
+            }
+            else if (databaseManager instanceof SQLDatabaseManager) {
+                ((SQLDatabaseManager) databaseManager).close(); // Don't leave connections open across reloads
+            }
+
             PartyManager.saveParties(); // Save our parties
             formulaManager.saveFormula();
             placeStore.saveAll();       // Save our metadata
@@ -274,6 +297,18 @@ public class mcMMO extends JavaPlugin {
         return databaseManager;
     }
 
+    public static ProfileSaveQueue getProfileSaveQueue() {
+        return profileSaveQueue;
+    }
+
+    public static ProfileCache getProfileCache() {
+        return profileCache;
+    }
+
+    public static OfflineProfileBuffer getOfflineProfileBuffer() {
+        return offlineProfileBuffer;
+    }
+
     @Deprecated
     public static void setDatabaseManager(DatabaseManager databaseManager) {
         mcMMO.databaseManager = databaseManager;
@@ -393,6 +428,9 @@ public class mcMMO extends JavaPlugin {
         long saveIntervalTicks = Config.getInstance().getSaveInterval() * 1200;
         new SaveTimerTask().runTaskTimer(this, saveIntervalTicks, saveIntervalTicks);
 
+        // Offline profile flush timer (Runs every five seconds)
+        new OfflineProfileFlushTask().runTaskTimer(this, 5 * Misc.TICK_CONVERSION_FACTOR, 5 * Misc.TICK_CONVERSION_FACTOR);
+
         // Bleed timer (Runs every two seconds)
         new BleedTimerTask().runTaskTimer(this, 2 * Misc.TICK_CONVERSION_FACTOR, 2 * Misc.TICK_CONVERSION_FACTOR);
 
@@ -21,6 +21,8 @@ public class DatabaseConversionTask extends BukkitRunnable {
     @Override
     public void run() {
         sourceDatabase.convertUsers(mcMMO.getDatabaseManager());
+        // The conversion wrote to the database directly
+        mcMMO.getProfileCache().clear();
 
         mcMMO.p.getServer().getScheduler().runTask(mcMMO.p, new Runnable() {
             @Override
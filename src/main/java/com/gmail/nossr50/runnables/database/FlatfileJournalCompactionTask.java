@@ -0,0 +1,35 @@
+package com.gmail.nossr50.runnables.database;
+
+import java.lang.ref.WeakReference;
+
+import org.bukkit.scheduler.BukkitRunnable;
+
+import com.gmail.nossr50.database.FlatfileDatabaseManager;
+
+/**
+ * This task folds the flatfile save journal back into the users file at a
+ * regular interval, so that the journal never grows too large.
+ * <p/>
+ * A WeakReference is used to keep the database instance, because
+ * {@link com.gmail.nossr50.commands.database.ConvertDatabaseCommand database
+ * conversion} may create a FlatfileDatabaseManager that will be thrown out.
+ * If a normal reference was used, the conversion would leak it through this
+ * task.
+ */
+public class FlatfileJournalCompactionTask extends BukkitRunnable {
+    WeakReference<FlatfileDatabaseManager> databaseInstance;
+
+    public FlatfileJournalCompactionTask(FlatfileDatabaseManager dbman) {
+        databaseInstance = new WeakReference<FlatfileDatabaseManager>(dbman);
+    }
+
+    public void run() {
+        FlatfileDatabaseManager dbman = databaseInstance.get();
+        if (dbman != null) {
+            dbman.compactJournal();
+        }
+        else {
+            this.cancel();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.gmail.nossr50.runnables.database;
+
+import org.bukkit.scheduler.BukkitRunnable;
+
+import com.gmail.nossr50.mcMMO;
+
+public class OfflineProfileFlushTask extends BukkitRunnable {
+    @Override
+    public void run() {
+        // Offline players changed through the API are saved in batches through this
+        mcMMO.getOfflineProfileBuffer().flush();
+    }
+}
@@ -0,0 +1,110 @@
+package com.gmail.nossr50.runnables.player;
+
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.datatypes.player.McMMOPlayer;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.locale.LocaleLoader;
+import com.gmail.nossr50.util.player.UserManager;
+import com.gmail.nossr50.util.scoreboards.ScoreboardManager;
+
+/**
+ * Loads the profile of a player off the main thread, retrying a few times
+ * if the database can't be reached, then hands it to the McMMOPlayer on the
+ * main thread.
+ */
+public class PlayerProfileLoadingTask extends BukkitRunnable {
+    private static final int MAX_TRIES = 5;
+    private static final long RETRY_DELAY = 31L;
+
+    private final McMMOPlayer mcMMOPlayer;
+    private final Player player;
+    private final String playerName;
+    private final int attempt;
+
+    public PlayerProfileLoadingTask(McMMOPlayer mcMMOPlayer) {
+        this(mcMMOPlayer, 0);
+    }
+
+    private PlayerProfileLoadingTask(McMMOPlayer mcMMOPlayer, int attempt) {
+        this.mcMMOPlayer = mcMMOPlayer;
+        this.player = mcMMOPlayer.getPlayer();
+        this.playerName = player.getName();
+        this.attempt = attempt;
+    }
+
+    // WARNING: ASYNC TASK
+    // DO NOT MODIFY THE McMMOPLAYER FROM THIS CODE
+    @Override
+    public void run() {
+        // Quit if they logged out
+        if (!player.isOnline()) {
+            mcMMO.p.getLogger().info("Aborting profile loading for " + playerName + " - player logged out");
+            return;
+        }
+
+        // Changes made through the API while they were offline have to be saved first
+        mcMMO.getOfflineProfileBuffer().flush(playerName);
+
+        // A save that didn't reach the database yet is newer than anything in there
+        PlayerProfile profile = mcMMO.getProfileSaveQueue().getUnsaved(playerName);
+
+        // The profile may already have been loaded while the player was logging in
+        if (profile == null && attempt == 0) {
+            profile = UserManager.claimWarmedProfile(playerName);
+        }
+
+        if (profile == null) {
+            profile = mcMMO.getDatabaseManager().loadPlayerProfile(playerName, true);
+        }
+
+        // If successful, schedule the apply
+        if (profile.isLoaded()) {
+            new ApplySuccessfulProfile(profile).runTask(mcMMO.p);
+
+            if (attempt > 0) {
+                player.sendMessage(LocaleLoader.getString("Recovery.Success"));
+            }
+
+            return;
+        }
+
+        // Send the message that we're doing the recovery
+        if (attempt == 0) {
+            mcMMO.p.getLogger().warning("Unable to load the PlayerProfile for " + playerName + ". Will retry over the next several seconds.");
+            player.sendMessage(LocaleLoader.getString("Recovery.Notice"));
+        }
+
+        // If we've failed five times, give up
+        if (attempt + 1 >= MAX_TRIES) {
+            mcMMO.p.getLogger().severe("Giving up on attempting to load the PlayerProfile for " + playerName);
+            mcMMO.p.getServer().broadcast(LocaleLoader.getString("Recovery.AdminFailureNotice", playerName), Server.BROADCAST_CHANNEL_ADMINISTRATIVE);
+            player.sendMessage(LocaleLoader.getString("Recovery.Failure").split("\n"));
+            return;
+        }
+
+        new PlayerProfileLoadingTask(mcMMOPlayer, attempt + 1).runTaskLaterAsynchronously(mcMMO.p, RETRY_DELAY);
+    }
+
+    private class ApplySuccessfulProfile extends BukkitRunnable {
+        private final PlayerProfile profile;
+
+        private ApplySuccessfulProfile(PlayerProfile profile) {
+            this.profile = profile;
+        }
+
+        // Synchronized task
+        // No database access permitted
+        @Override
+        public void run() {
+            mcMMOPlayer.applyProfile(profile);
+
+            if (player.isOnline()) {
+                ScoreboardManager.enablePowerLevelDisplay(player);
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.bukkit.metadata.FixedMetadataValue;
 
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.database.OfflineProfileBuffer.ProfileChange;
 import com.gmail.nossr50.datatypes.player.McMMOPlayer;
 import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.datatypes.skills.AbilityType;
@@ -109,7 +110,14 @@ public class MiningManager extends SkillManager {
         tnt.setFuseTicks(0);
         targetBlock.setType(Material.AIR);
 
-        getProfile().setSkillDATS(AbilityType.BLAST_MINING, System.currentTimeMillis());
+        final long detonatedAt = System.currentTimeMillis();
+
+        mcMMOPlayer.changeProfile(new ProfileChange() {
+            @Override
+            public void apply(PlayerProfile profile) {
+                profile.setSkillDATS(AbilityType.BLAST_MINING, detonatedAt);
+            }
+        });
         mcMMOPlayer.setAbilityInformed(AbilityType.BLAST_MINING, false);
         new AbilityCooldownTask(mcMMOPlayer, AbilityType.BLAST_MINING).runTaskLaterAsynchronously(mcMMO.p, AbilityType.BLAST_MINING.getCooldown() * Misc.TICK_CONVERSION_FACTOR);
     }
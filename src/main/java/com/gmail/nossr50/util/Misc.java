@@ -190,6 +190,7 @@ public final class Misc {
 
     public static void profileCleanup(String playerName) {
         UserManager.remove(playerName);
+        mcMMO.getProfileCache().invalidate(playerName);
 
         Player player = mcMMO.p.getServer().getPlayerExact(playerName);
 
@@ -0,0 +1,285 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.UUID;
+
+import org.bukkit.World;
+
+import com.gmail.nossr50.util.blockmeta.ChunkletStore;
+
+/**
+ * A ChunkStore keeping one bit per block.
+ * <p/>
+ * The chunk is split into 16 block high sections of 4096 bits, each held in
+ * 64 longs. A section is only allocated once something in it is set, and is
+ * dropped again when it is cleared, so a chunk with a few placed blocks
+ * costs a few hundred bytes instead of the 64KB of a
+ * {@link PrimitiveChunkStore}.
+ * <p/>
+ * Used by {@link SparseChunkStore} for chunks with too many blocks set to
+ * keep in a list.
+ */
+public class BitSetChunkStore implements ChunkStore {
+    private static final long serialVersionUID = -1L;
+    transient private boolean dirty = false;
+    /** Sections from the bottom of the world up, null when empty */
+    private long[][] sections;
+    private static final int CURRENT_VERSION = 8;
+    private static final int MAGIC_NUMBER = 0xEA5EDEBB;
+    private static final int SECTION_LONGS = 16 * 16 * 16 / 64;
+    private int cx;
+    private int cz;
+    private UUID worldUid;
+
+    public BitSetChunkStore(World world, int cx, int cz) {
+        this(world.getUID(), cx, cz, world.getMaxHeight());
+    }
+
+    BitSetChunkStore(UUID worldUid, int cx, int cz, int worldHeight) {
+        this.cx = cx;
+        this.cz = cz;
+        this.worldUid = worldUid;
+        this.sections = new long[(worldHeight + 15) >> 4][];
+    }
+
+    @Override
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    @Override
+    public int getChunkX() {
+        return cx;
+    }
+
+    @Override
+    public int getChunkZ() {
+        return cz;
+    }
+
+    @Override
+    public boolean isTrue(int x, int y, int z) {
+        long[] section = getSection(y);
+
+        if (section == null) {
+            return false;
+        }
+
+        int index = index(x, y, z);
+        return (section[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public void setTrue(int x, int y, int z) {
+        if (y < 0 || (y >> 4) >= sections.length) {
+            return;
+        }
+
+        long[] section = sections[y >> 4];
+
+        if (section == null) {
+            section = new long[SECTION_LONGS];
+            sections[y >> 4] = section;
+        }
+
+        int index = index(x, y, z);
+        section[index >>> 6] |= 1L << index;
+        dirty = true;
+    }
+
+    @Override
+    public void setFalse(int x, int y, int z) {
+        long[] section = getSection(y);
+
+        if (section == null) {
+            return;
+        }
+
+        int index = index(x, y, z);
+        section[index >>> 6] &= ~(1L << index);
+
+        // Drop the section if that was the last block set in it
+        if (section[index >>> 6] == 0 && isEmpty(section)) {
+            sections[y >> 4] = null;
+        }
+
+        dirty = true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (long[] section : sections) {
+            if (section != null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void copyFrom(ChunkletStore otherStore) {
+        int worldHeight = sections.length << 4;
+
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = 0; y < worldHeight; y++) {
+                    if (otherStore.isTrue(x, y, z)) {
+                        setTrue(x, y, z);
+                    }
+                    else {
+                        setFalse(x, y, z);
+                    }
+                }
+            }
+        }
+        dirty = true;
+    }
+
+    UUID getWorldUid() {
+        return worldUid;
+    }
+
+    int getWorldHeight() {
+        return sections.length << 4;
+    }
+
+    /**
+     * Write the sections for {@link ChunkStoreCodec}, each as a mask of its
+     * longs that have bits set followed by those longs.
+     */
+    void writeSections(DataOutput out) throws IOException {
+        for (long[] section : sections) {
+            long mask = 0;
+
+            if (section != null) {
+                for (int i = 0; i < SECTION_LONGS; i++) {
+                    if (section[i] != 0) {
+                        mask |= 1L << i;
+                    }
+                }
+            }
+
+            out.writeLong(mask);
+
+            for (int i = 0; mask != 0; i++, mask >>>= 1) {
+                if ((mask & 1) != 0) {
+                    out.writeLong(section[i]);
+                }
+            }
+        }
+    }
+
+    void readSections(DataInput in) throws IOException {
+        for (int i = 0; i < sections.length; i++) {
+            long mask = in.readLong();
+
+            if (mask == 0) {
+                sections[i] = null;
+                continue;
+            }
+
+            long[] section = new long[SECTION_LONGS];
+
+            for (int j = 0; mask != 0; j++, mask >>>= 1) {
+                if ((mask & 1) != 0) {
+                    section[j] = in.readLong();
+                }
+            }
+
+            sections[i] = section;
+        }
+    }
+
+    private long[] getSection(int y) {
+        if (y < 0 || (y >> 4) >= sections.length) {
+            return null;
+        }
+
+        return sections[y >> 4];
+    }
+
+    /**
+     * Get the bit of a block within its section, laid out as Y, Z, X.
+     */
+    private static int index(int x, int y, int z) {
+        return ((y & 15) << 8) | (z << 4) | x;
+    }
+
+    private static boolean isEmpty(long[] section) {
+        for (long bits : section) {
+            if (bits != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(MAGIC_NUMBER);
+        out.writeInt(CURRENT_VERSION);
+
+        out.writeLong(worldUid.getLeastSignificantBits());
+        out.writeLong(worldUid.getMostSignificantBits());
+        out.writeInt(cx);
+        out.writeInt(cz);
+        out.writeInt(sections.length);
+
+        for (long[] section : sections) {
+            out.writeBoolean(section != null);
+
+            if (section == null) {
+                continue;
+            }
+
+            for (long bits : section) {
+                out.writeLong(bits);
+            }
+        }
+
+        dirty = false;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int magic = in.readInt();
+        int fileVersionNumber = in.readInt();
+
+        if (magic != MAGIC_NUMBER || fileVersionNumber > CURRENT_VERSION) {
+            throw new IOException("Unknown chunk store format " + fileVersionNumber);
+        }
+
+        long lsb = in.readLong();
+        long msb = in.readLong();
+        worldUid = new UUID(msb, lsb);
+        cx = in.readInt();
+        cz = in.readInt();
+        sections = new long[in.readInt()][];
+
+        for (int i = 0; i < sections.length; i++) {
+            if (!in.readBoolean()) {
+                continue;
+            }
+
+            long[] section = new long[SECTION_LONGS];
+
+            for (int j = 0; j < SECTION_LONGS; j++) {
+                section[j] = in.readLong();
+            }
+
+            // Don't keep sections that were saved empty
+            if (!isEmpty(section)) {
+                sections[i] = section;
+            }
+        }
+    }
+}
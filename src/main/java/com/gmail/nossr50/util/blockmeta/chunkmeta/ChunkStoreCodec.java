@@ -0,0 +1,187 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PushbackInputStream;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the ChunkStores kept in the region files.
+ * <p/>
+ * Chunks are written as a magic number, a format version, the payload and
+ * a CRC32 of the payload. The payload holds the chunk's coordinates and the
+ * blocks set in it, either as a delta coded list or as bitmaps of the
+ * sections that have blocks set. Chunks saved with Java serialization by
+ * older versions are still read, and are written in this format the next
+ * time they change.
+ */
+final class ChunkStoreCodec {
+    private static final int MAGIC_NUMBER = 0x6D634D4D; // "mcMM"
+    private static final int CURRENT_VERSION = 1;
+    // A Java serialization stream starts with these two bytes
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+    private static final int MAX_PAYLOAD_LENGTH = 1 << 20;
+    private static final int MAX_WORLD_HEIGHT = 4096;
+
+    private ChunkStoreCodec() {}
+
+    /**
+     * Write a ChunkStore. Stores without a compact format are written with
+     * Java serialization.
+     *
+     * @param out The stream to write to
+     * @param chunkStore The ChunkStore to write
+     * @throws IOException if the stream can't be written
+     */
+    static void write(DataOutputStream out, ChunkStore chunkStore) throws IOException {
+        SparseChunkStore sparse;
+
+        if (chunkStore instanceof SparseChunkStore) {
+            sparse = (SparseChunkStore) chunkStore;
+        }
+        else if (chunkStore instanceof BitSetChunkStore) {
+            sparse = new SparseChunkStore((BitSetChunkStore) chunkStore);
+        }
+        else {
+            ObjectOutputStream objectStream = new ObjectOutputStream(out);
+            objectStream.writeObject(chunkStore);
+            objectStream.flush();
+            return;
+        }
+
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+        payload.writeLong(sparse.getWorldUid().getMostSignificantBits());
+        payload.writeLong(sparse.getWorldUid().getLeastSignificantBits());
+        payload.writeInt(sparse.getChunkX());
+        payload.writeInt(sparse.getChunkZ());
+        writeVarInt(payload, sparse.getWorldHeight());
+        sparse.writeData(payload);
+        payload.flush();
+
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+
+        out.writeInt(MAGIC_NUMBER);
+        out.writeByte(CURRENT_VERSION);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt((int) checksum.getValue());
+    }
+
+    /**
+     * Read a ChunkStore written by {@link #write} or by Java serialization.
+     *
+     * @param in The stream to read from
+     * @return the ChunkStore read
+     * @throws IOException if the data is damaged or in an unknown format
+     * @throws ClassNotFoundException if serialized data names a class that doesn't exist
+     */
+    static ChunkStore read(InputStream in) throws IOException, ClassNotFoundException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int first = pushback.read();
+        int second = pushback.read();
+
+        if (first < 0 || second < 0) {
+            throw new EOFException("Chunk store data is empty");
+        }
+
+        pushback.unread(new byte[] { (byte) first, (byte) second });
+
+        if (((first << 8) | second) == SERIALIZATION_MAGIC) {
+            return readSerialized(pushback);
+        }
+
+        DataInputStream data = new DataInputStream(pushback);
+
+        if (data.readInt() != MAGIC_NUMBER) {
+            throw new IOException("Unknown chunk store format");
+        }
+
+        int version = data.readUnsignedByte();
+
+        if (version > CURRENT_VERSION) {
+            throw new IOException("Chunk store format " + version + " is newer than this version of mcMMO");
+        }
+
+        int length = data.readInt();
+
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Bad chunk store length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+
+        if (data.readInt() != (int) checksum.getValue()) {
+            throw new IOException("Chunk store checksum mismatch");
+        }
+
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+        long msb = payload.readLong();
+        long lsb = payload.readLong();
+        int cx = payload.readInt();
+        int cz = payload.readInt();
+        int worldHeight = readVarInt(payload);
+
+        if (worldHeight <= 0 || worldHeight > MAX_WORLD_HEIGHT) {
+            throw new IOException("Bad chunk store world height " + worldHeight);
+        }
+
+        SparseChunkStore chunkStore = new SparseChunkStore(new UUID(msb, lsb), cx, cz, worldHeight);
+        chunkStore.readData(payload);
+        return chunkStore;
+    }
+
+    private static ChunkStore readSerialized(InputStream in) throws IOException, ClassNotFoundException {
+        Object o = new ObjectInputStream(in).readObject();
+
+        if (o instanceof ChunkStore) {
+            return (ChunkStore) o;
+        }
+
+        throw new IOException("Wrong class type read for chunk meta data: " + o.getClass().getName());
+    }
+
+    /**
+     * Write a non-negative int in as few bytes as it needs, 7 bits at a time.
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Bad variable length int");
+    }
+}
@@ -0,0 +1,161 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+/**
+ * The loaded ChunkStores of one world, keyed by chunk coordinates packed
+ * into a long.
+ * <p/>
+ * Uses open addressing with linear probing and is kept at most half full,
+ * so most lookups find their chunk in the first slot and none of them
+ * create objects.
+ */
+class ChunkStoreMap {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys;
+    // A null value marks an empty slot
+    private ChunkStore[] values;
+    private int mask;
+    private int size;
+
+    ChunkStoreMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new ChunkStore[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+    }
+
+    static long key(int cx, int cz) {
+        return (((long) cx) << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    static int getChunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int getChunkZ(long key) {
+        return (int) key;
+    }
+
+    ChunkStore get(long key) {
+        for (int slot = slot(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Store a ChunkStore, replacing whatever was stored for the same chunk.
+     *
+     * @param key The packed chunk coordinates
+     * @param value The ChunkStore, not null
+     * @return the ChunkStore that was replaced, or null
+     */
+    ChunkStore put(long key, ChunkStore value) {
+        int slot = slot(key);
+
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                ChunkStore previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+
+        if (++size > (values.length >> 1)) {
+            resize(values.length << 1);
+        }
+
+        return null;
+    }
+
+    ChunkStore remove(long key) {
+        int slot = slot(key);
+
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                break;
+            }
+        }
+
+        ChunkStore removed = values[slot];
+
+        if (removed == null) {
+            return null;
+        }
+
+        // Move back the entries after it that would no longer be found past the hole
+        int hole = slot;
+
+        for (slot = (slot + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            int home = slot(keys[slot]);
+
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+
+        values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the keys of every stored chunk, safe to use while changing the map.
+     */
+    long[] keys() {
+        long[] result = new long[size];
+        int i = 0;
+
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                result[i++] = keys[slot];
+            }
+        }
+
+        return result;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        ChunkStore[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new ChunkStore[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+
+            int slot = slot(oldKeys[i]);
+
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -1,14 +1,12 @@
 package com.gmail.nossr50.util.blockmeta.chunkmeta;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.UUID;
 
 import org.bukkit.World;
@@ -17,11 +15,13 @@ import org.bukkit.block.BlockState;
 import org.bukkit.entity.Entity;
 
 import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.config.HiddenConfig;
 import com.gmail.nossr50.util.blockmeta.conversion.BlockStoreConversionZDirectory;
 
 public class HashChunkManager implements ChunkManager {
     private HashMap<UUID, HashMap<Long, McMMOSimpleRegionFile>> regionFiles = new HashMap<UUID, HashMap<Long, McMMOSimpleRegionFile>>();
-    public HashMap<String, ChunkStore> store = new HashMap<String, ChunkStore>();
+    // Loaded chunks of each world, keyed by world UID
+    private HashMap<UUID, ChunkStoreMap> store = new HashMap<UUID, ChunkStoreMap>();
     public ArrayList<BlockStoreConversionZDirectory> converters = new ArrayList<BlockStoreConversionZDirectory>();
     private HashMap<UUID, Boolean> oldData = new HashMap<UUID, Boolean>();
 
@@ -47,28 +47,19 @@ public class HashChunkManager implements ChunkManager {
         if (in == null) {
             return null;
         }
-        ObjectInputStream objectStream = new ObjectInputStream(in);
         try {
-            Object o = objectStream.readObject();
-            if (o instanceof ChunkStore) {
-                return (ChunkStore) o;
-            }
-
-            throw new RuntimeException("Wrong class type read for chunk meta data for " + x + ", " + z);
+            return ChunkStoreCodec.read(in);
         }
         catch (IOException e) {
-            // Assume the format changed
+            mcMMO.p.getLogger().warning("Unable to read placed block data for chunk " + x + ", " + z + " in " + world.getName() + ": " + e.getMessage());
             return null;
-            //throw new RuntimeException("Unable to process chunk meta data for " + x + ", " + z, e);
         }
         catch (ClassNotFoundException e) {
-            // Assume the format changed
-            //System.out.println("[SpoutPlugin] is Unable to find serialized class for " + x + ", " + z + ", " + e.getMessage());
+            mcMMO.p.getLogger().warning("Unable to read placed block data for chunk " + x + ", " + z + " in " + world.getName() + ", unknown class " + e.getMessage());
             return null;
-            //throw new RuntimeException("Unable to find serialized class for " + x + ", " + z, e);
         }
         finally {
-            objectStream.close();
+            in.close();
         }
     }
 
@@ -79,10 +70,10 @@ public class HashChunkManager implements ChunkManager {
         }
         try {
             McMMOSimpleRegionFile rf = getSimpleRegionFile(world, x, z);
-            ObjectOutputStream objectStream = new ObjectOutputStream(rf.getOutputStream(x, z));
-            objectStream.writeObject(data);
-            objectStream.flush();
-            objectStream.close();
+            DataOutputStream out = rf.getOutputStream(x, z);
+            ChunkStoreCodec.write(out, data);
+            out.flush();
+            out.close();
             data.setDirty(false);
         }
         catch (IOException e) {
@@ -98,6 +89,51 @@ public class HashChunkManager implements ChunkManager {
         }
     }
 
+    /**
+     * Get the ChunkStore of a chunk if it is loaded, without loading it.
+     *
+     * @param world The world of the chunk
+     * @param cx The chunk x coordinate
+     * @param cz The chunk z coordinate
+     * @return the loaded ChunkStore, or null if there is none
+     */
+    public synchronized ChunkStore getChunkStore(World world, int cx, int cz) {
+        ChunkStoreMap worldStore = store.get(world.getUID());
+
+        if (worldStore == null) {
+            return null;
+        }
+
+        return worldStore.get(ChunkStoreMap.key(cx, cz));
+    }
+
+    private ChunkStoreMap getWorldStore(World world) {
+        UUID key = world.getUID();
+        ChunkStoreMap worldStore = store.get(key);
+
+        if (worldStore == null) {
+            worldStore = new ChunkStoreMap();
+            store.put(key, worldStore);
+        }
+
+        return worldStore;
+    }
+
+    /**
+     * Get the ChunkStore of a chunk, loading it if it has one saved.
+     */
+    private ChunkStore loadChunkStore(ChunkStoreMap worldStore, int cx, int cz, World world) {
+        long key = ChunkStoreMap.key(cx, cz);
+        ChunkStore chunkStore = worldStore.get(key);
+
+        if (chunkStore == null) {
+            loadChunk(cx, cz, world, null);
+            chunkStore = worldStore.get(key);
+        }
+
+        return chunkStore;
+    }
+
     private synchronized McMMOSimpleRegionFile getSimpleRegionFile(World world, int x, int z) {
         File directory = new File(world.getWorldFolder(), "mcmmo_regions");
 
@@ -121,7 +157,7 @@ public class HashChunkManager implements ChunkManager {
 
         if (regionFile == null) {
             File file = new File(directory, "mcmmo_" + rx + "_" + rz + "_.mcm");
-            regionFile = new McMMOSimpleRegionFile(file, rx, rz);
+            regionFile = new McMMOSimpleRegionFile(file, rx, rz, McMMOSimpleRegionFile.DEFAULT_SEGMENT_SIZE, HiddenConfig.getInstance().getChunkletCompressionLevel());
             worldRegions.put(key2, regionFile);
         }
 
@@ -140,7 +176,7 @@ public class HashChunkManager implements ChunkManager {
 
     @Override
     public synchronized void loadChunk(int cx, int cz, World world, Entity[] entities) {
-        if (world == null || store.containsKey(world.getName() + "," + cx + "," + cz)) {
+        if (world == null || getChunkStore(world, cx, cz) != null) {
             return;
         }
 
@@ -166,15 +202,17 @@ public class HashChunkManager implements ChunkManager {
             return;
         }
 
-        store.put(world.getName() + "," + cx + "," + cz, chunkStore);
+        getWorldStore(world).put(ChunkStoreMap.key(cx, cz), chunkStore);
     }
 
     @Override
     public synchronized void unloadChunk(int cx, int cz, World world) {
         saveChunk(cx, cz, world);
 
-        if (store.containsKey(world.getName() + "," + cx + "," + cz)) {
-            store.remove(world.getName() + "," + cx + "," + cz);
+        ChunkStoreMap worldStore = store.get(world.getUID());
+
+        if (worldStore != null) {
+            worldStore.remove(ChunkStoreMap.key(cx, cz));
 
             //closeChunkStore(world, cx, cz);
         }
@@ -186,17 +224,13 @@ public class HashChunkManager implements ChunkManager {
             return;
         }
 
-        String key = world.getName() + "," + cx + "," + cz;
+        ChunkStore out = getChunkStore(world, cx, cz);
 
-        if (store.containsKey(key)) {
-            ChunkStore out = store.get(world.getName() + "," + cx + "," + cz);
-
-            if (!out.isDirty()) {
-                return;
-            }
-
-            writeChunkStore(world, cx, cz, out);
+        if (out == null || !out.isDirty()) {
+            return;
         }
+
+        writeChunkStore(world, cx, cz, out);
     }
 
     @Override
@@ -205,7 +239,7 @@ public class HashChunkManager implements ChunkManager {
             return false;
         }
 
-        return store.containsKey(world.getName() + "," + cx + "," + cz);
+        return getChunkStore(world, cx, cz) != null;
     }
 
     @Override
@@ -227,24 +261,14 @@ public class HashChunkManager implements ChunkManager {
         }
 
         closeAll();
-        String worldName = world.getName();
-
-        List<String> keys = new ArrayList<String>(store.keySet());
-        for (String key : keys) {
-            String[] info = key.split(",");
-            if (worldName.equals(info[0])) {
-                int cx = 0;
-                int cz = 0;
-
-                try {
-                    cx = Integer.parseInt(info[1]);
-                    cz = Integer.parseInt(info[2]);
-                }
-                catch (Exception e) {
-                    continue;
-                }
-                saveChunk(cx, cz, world);
-            }
+        ChunkStoreMap worldStore = store.get(world.getUID());
+
+        if (worldStore == null) {
+            return;
+        }
+
+        for (long key : worldStore.keys()) {
+            saveChunk(ChunkStoreMap.getChunkX(key), ChunkStoreMap.getChunkZ(key), world);
         }
     }
 
@@ -255,25 +279,17 @@ public class HashChunkManager implements ChunkManager {
         }
 
         closeAll();
-        String worldName = world.getName();
-
-        List<String> keys = new ArrayList<String>(store.keySet());
-        for (String key : keys) {
-            String[] info = key.split(",");
-            if (worldName.equals(info[0])) {
-                int cx = 0;
-                int cz = 0;
-
-                try {
-                    cx = Integer.parseInt(info[1]);
-                    cz = Integer.parseInt(info[2]);
-                }
-                catch (Exception e) {
-                    continue;
-                }
-                unloadChunk(cx, cz, world);
-            }
+        ChunkStoreMap worldStore = store.get(world.getUID());
+
+        if (worldStore == null) {
+            return;
+        }
+
+        for (long key : worldStore.keys()) {
+            unloadChunk(ChunkStoreMap.getChunkX(key), ChunkStoreMap.getChunkZ(key), world);
         }
+
+        store.remove(world.getUID());
     }
 
     @Override
@@ -305,17 +321,12 @@ public class HashChunkManager implements ChunkManager {
 
         int cx = x / 16;
         int cz = z / 16;
-        String key = world.getName() + "," + cx + "," + cz;
+        ChunkStore check = loadChunkStore(getWorldStore(world), cx, cz, world);
 
-        if (!store.containsKey(key)) {
-            loadChunk(cx, cz, world, null);
-        }
-
-        if (!store.containsKey(key)) {
+        if (check == null) {
             return false;
         }
 
-        ChunkStore check = store.get(key);
         int ix = Math.abs(x) % 16;
         int iz = Math.abs(z) % 16;
 
@@ -352,17 +363,12 @@ public class HashChunkManager implements ChunkManager {
         int ix = Math.abs(x) % 16;
         int iz = Math.abs(z) % 16;
 
-        String key = world.getName() + "," + cx + "," + cz;
-
-        if (!store.containsKey(key)) {
-            loadChunk(cx, cz, world, null);
-        }
-
-        ChunkStore cStore = store.get(key);
+        ChunkStoreMap worldStore = getWorldStore(world);
+        ChunkStore cStore = loadChunkStore(worldStore, cx, cz, world);
 
         if (cStore == null) {
             cStore = ChunkStoreFactory.getChunkStore(world, cx, cz);
-            store.put(key, cStore);
+            worldStore.put(ChunkStoreMap.key(cx, cz), cStore);
         }
 
         cStore.setTrue(ix, y, iz);
@@ -398,13 +404,7 @@ public class HashChunkManager implements ChunkManager {
         int ix = Math.abs(x) % 16;
         int iz = Math.abs(z) % 16;
 
-        String key = world.getName() + "," + cx + "," + cz;
-
-        if (!store.containsKey(key)) {
-            loadChunk(cx, cz, world, null);
-        }
-
-        ChunkStore cStore = store.get(key);
+        ChunkStore cStore = loadChunkStore(getWorldStore(world), cx, cz, world);
 
         if (cStore == null) {
             return; // No need to make a store for something we will be setting to false
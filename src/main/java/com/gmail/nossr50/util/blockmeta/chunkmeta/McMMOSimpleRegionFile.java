@@ -20,16 +20,27 @@
 package com.gmail.nossr50.util.blockmeta.chunkmeta;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
 public class McMMOSimpleRegionFile {
+    // Segments of 256 bytes for new files, chunks are usually a lot smaller than that
+    public static final int DEFAULT_SEGMENT_SIZE = 8;
+
+    // The first byte of each chunk, saying how the rest of it is stored
+    private static final int STORED = 0;
+    private static final int DEFLATED = 1;
+    // Chunks saved before there was a flag are deflated and start with a zlib header
+    private static final int LEGACY_ZLIB_HEADER = 0x78;
+
     private RandomAccessFile file;
     private final int[] dataStart = new int[1024];
     private final int[] dataActualLength = new int[1024];
@@ -40,6 +51,7 @@ public class McMMOSimpleRegionFile {
     private final int rx;
     private final int rz;
     private final int defaultSegmentSize;
+    private final int compressionLevel;
     private final File parent;
     @SuppressWarnings("unused")
     private long lastAccessTime = System.currentTimeMillis();
@@ -47,13 +59,25 @@ public class McMMOSimpleRegionFile {
     private static long TIMEOUT_TIME = 300000; // 5 min
 
     public McMMOSimpleRegionFile(File f, int rx, int rz) {
-        this(f, rx, rz, 10);
+        this(f, rx, rz, DEFAULT_SEGMENT_SIZE, Deflater.DEFAULT_COMPRESSION);
     }
 
     public McMMOSimpleRegionFile(File f, int rx, int rz, int defaultSegmentSize) {
+        this(f, rx, rz, defaultSegmentSize, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param f The region file
+     * @param rx The region x coordinate
+     * @param rz The region z coordinate
+     * @param defaultSegmentSize log2 of the segment size, for new files
+     * @param compressionLevel The Deflater level chunks are saved with, 0 to save them uncompressed
+     */
+    public McMMOSimpleRegionFile(File f, int rx, int rz, int defaultSegmentSize, int compressionLevel) {
         this.rx = rx;
         this.rz = rz;
         this.defaultSegmentSize = defaultSegmentSize;
+        this.compressionLevel = (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) ? Deflater.DEFAULT_COMPRESSION : compressionLevel;
         this.parent = f;
 
         lastAccessTime = System.currentTimeMillis();
@@ -164,7 +188,7 @@ public class McMMOSimpleRegionFile {
 
     public synchronized DataOutputStream getOutputStream(int x, int z) {
         int index = getChunkIndex(x, z);
-        return new DataOutputStream(new DeflaterOutputStream(new McMMOSimpleChunkBuffer(this, index)));
+        return new DataOutputStream(new McMMOSimpleChunkBuffer(this, index));
     }
 
     public synchronized DataInputStream getInputStream(int x, int z) throws IOException {
@@ -179,10 +203,55 @@ public class McMMOSimpleRegionFile {
 
         getFile().seek(dataStart[index] << segmentSize);
         getFile().readFully(data);
-        return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+
+        switch (data[0]) {
+            case STORED:
+                return new DataInputStream(new ByteArrayInputStream(data, 1, actualLength - 1));
+
+            case DEFLATED:
+                return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data, 1, actualLength - 1)));
+
+            case LEGACY_ZLIB_HEADER:
+                return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+
+            default:
+                throw new IOException("Unknown storage type " + data[0] + " for chunk " + x + ", " + z);
+        }
+    }
+
+    /**
+     * Write a chunk behind its flag byte, deflated unless that doesn't make
+     * it any smaller.
+     */
+    synchronized void write(int index, byte[] data, int length) throws IOException {
+        if (compressionLevel != Deflater.NO_COMPRESSION) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 16);
+            Deflater deflater = new Deflater(compressionLevel);
+
+            compressed.write(DEFLATED);
+
+            try {
+                DeflaterOutputStream deflaterStream = new DeflaterOutputStream(compressed, deflater);
+                deflaterStream.write(data, 0, length);
+                deflaterStream.finish();
+            }
+            finally {
+                deflater.end();
+            }
+
+            if (compressed.size() <= length) {
+                writeSegments(index, compressed.toByteArray(), compressed.size());
+                return;
+            }
+        }
+
+        byte[] stored = new byte[length + 1];
+        stored[0] = STORED;
+        System.arraycopy(data, 0, stored, 1, length);
+        writeSegments(index, stored, stored.length);
     }
 
-    synchronized void write(int index, byte[] buffer, int size) throws IOException {
+    private synchronized void writeSegments(int index, byte[] buffer, int size) throws IOException {
         int oldStart = setInUse(index, false);
         int start = findSpace(oldStart, size);
         getFile().seek(start << segmentSize);
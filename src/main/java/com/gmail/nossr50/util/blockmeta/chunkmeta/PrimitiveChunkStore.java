@@ -10,6 +10,13 @@ import org.bukkit.World;
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.util.blockmeta.ChunkletStore;
 
+/**
+ * The original ChunkStore, keeping a boolean for every block.
+ * <p/>
+ * New chunks use a {@link SparseChunkStore}. This class is kept to read
+ * chunks saved in its format, which become a SparseChunkStore as they are
+ * read and are saved in that format from then on.
+ */
 public class PrimitiveChunkStore implements ChunkStore {
     private static final long serialVersionUID = -1L;
     transient private boolean dirty = false;
@@ -134,6 +141,24 @@ public class PrimitiveChunkStore implements ChunkStore {
         }
     }
 
+    private Object readResolve() {
+        SparseChunkStore upgraded = new SparseChunkStore(worldUid, cx, cz, worldHeight);
+
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = 0; y < store[x][z].length; y++) {
+                    if (store[x][z][y]) {
+                        upgraded.setTrue(x, y, z);
+                    }
+                }
+            }
+        }
+
+        // Write it back in the new format
+        upgraded.setDirty(true);
+        return upgraded;
+    }
+
     private void fixArray() {
         boolean[][][] temp = this.store;
         this.store = new boolean[16][16][this.worldHeight];
@@ -0,0 +1,325 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.bukkit.World;
+
+import com.gmail.nossr50.util.blockmeta.ChunkletStore;
+
+/**
+ * A ChunkStore sized by the number of blocks set in it.
+ * <p/>
+ * Most chunks only have a handful of placed blocks, so they are kept as a
+ * sorted array of packed coordinates. Once a chunk has more than
+ * {@link #MAX_SPARSE_SIZE} blocks set, it switches to a
+ * {@link BitSetChunkStore}, and goes back to the array when that is
+ * cleared.
+ */
+public class SparseChunkStore implements ChunkStore {
+    private static final long serialVersionUID = -1L;
+    transient private boolean dirty = false;
+    /** Packed coordinates of the blocks set, sorted, only used while sparse */
+    private int[] blocks;
+    private int size;
+    /** The store used once the chunk has too many blocks set, null while sparse */
+    private BitSetChunkStore dense;
+    private static final int CURRENT_VERSION = 9;
+    private static final int MAGIC_NUMBER = 0xEA5EDEBB;
+    // Past this many blocks the array is bigger than a couple of bitset sections
+    private static final int MAX_SPARSE_SIZE = 256;
+    private static final int INITIAL_CAPACITY = 8;
+    private int cx;
+    private int cz;
+    private int worldHeight;
+    private UUID worldUid;
+
+    public SparseChunkStore(World world, int cx, int cz) {
+        this(world.getUID(), cx, cz, world.getMaxHeight());
+    }
+
+    SparseChunkStore(UUID worldUid, int cx, int cz, int worldHeight) {
+        this.cx = cx;
+        this.cz = cz;
+        this.worldUid = worldUid;
+        this.worldHeight = worldHeight;
+        this.blocks = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Wrap a {@link BitSetChunkStore}, so it can be saved like any other.
+     */
+    SparseChunkStore(BitSetChunkStore dense) {
+        this(dense.getWorldUid(), dense.getChunkX(), dense.getChunkZ(), dense.getWorldHeight());
+
+        if (!dense.isEmpty()) {
+            this.dense = dense;
+            this.blocks = null;
+        }
+    }
+
+    @Override
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    @Override
+    public int getChunkX() {
+        return cx;
+    }
+
+    @Override
+    public int getChunkZ() {
+        return cz;
+    }
+
+    @Override
+    public boolean isTrue(int x, int y, int z) {
+        if (dense != null) {
+            return dense.isTrue(x, y, z);
+        }
+
+        return Arrays.binarySearch(blocks, 0, size, pack(x, y, z)) >= 0;
+    }
+
+    @Override
+    public void setTrue(int x, int y, int z) {
+        if (y < 0 || y >= worldHeight) {
+            return;
+        }
+
+        dirty = true;
+
+        if (dense != null) {
+            dense.setTrue(x, y, z);
+            return;
+        }
+
+        int block = pack(x, y, z);
+        int index = Arrays.binarySearch(blocks, 0, size, block);
+
+        if (index >= 0) {
+            return;
+        }
+
+        if (size == MAX_SPARSE_SIZE) {
+            promote();
+            dense.setTrue(x, y, z);
+            return;
+        }
+
+        index = -(index + 1);
+
+        if (size == blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.min(size * 2, MAX_SPARSE_SIZE));
+        }
+
+        System.arraycopy(blocks, index, blocks, index + 1, size - index);
+        blocks[index] = block;
+        size++;
+    }
+
+    @Override
+    public void setFalse(int x, int y, int z) {
+        if (dense != null) {
+            dense.setFalse(x, y, z);
+            dirty = true;
+
+            if (dense.isEmpty()) {
+                dense = null;
+                blocks = new int[INITIAL_CAPACITY];
+            }
+
+            return;
+        }
+
+        int index = Arrays.binarySearch(blocks, 0, size, pack(x, y, z));
+
+        if (index < 0) {
+            return;
+        }
+
+        System.arraycopy(blocks, index + 1, blocks, index, size - index - 1);
+        size--;
+        dirty = true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (dense != null) {
+            return dense.isEmpty();
+        }
+
+        return size == 0;
+    }
+
+    @Override
+    public void copyFrom(ChunkletStore otherStore) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = 0; y < worldHeight; y++) {
+                    if (otherStore.isTrue(x, y, z)) {
+                        setTrue(x, y, z);
+                    }
+                    else {
+                        setFalse(x, y, z);
+                    }
+                }
+            }
+        }
+        dirty = true;
+    }
+
+    boolean isDense() {
+        return dense != null;
+    }
+
+    UUID getWorldUid() {
+        return worldUid;
+    }
+
+    int getWorldHeight() {
+        return worldHeight;
+    }
+
+    /**
+     * Write the blocks set for {@link ChunkStoreCodec}, either as the
+     * differences between the sorted packed coordinates or as section
+     * bitmaps.
+     */
+    void writeData(DataOutput out) throws IOException {
+        out.writeBoolean(dense != null);
+
+        if (dense != null) {
+            dense.writeSections(out);
+            return;
+        }
+
+        ChunkStoreCodec.writeVarInt(out, size);
+        int previous = 0;
+
+        for (int i = 0; i < size; i++) {
+            ChunkStoreCodec.writeVarInt(out, blocks[i] - previous);
+            previous = blocks[i];
+        }
+    }
+
+    void readData(DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            dense = new BitSetChunkStore(worldUid, cx, cz, worldHeight);
+            dense.readSections(in);
+            blocks = null;
+            size = 0;
+            return;
+        }
+
+        int count = ChunkStoreCodec.readVarInt(in);
+
+        if (count < 0 || count > MAX_SPARSE_SIZE) {
+            throw new IOException("Bad sparse chunk store size " + count);
+        }
+
+        blocks = new int[Math.max(count, INITIAL_CAPACITY)];
+        int block = 0;
+
+        for (int i = 0; i < count; i++) {
+            block += ChunkStoreCodec.readVarInt(in);
+            blocks[i] = block;
+        }
+
+        size = count;
+    }
+
+    /**
+     * Move every block set into a {@link BitSetChunkStore} and use that from
+     * now on.
+     */
+    private void promote() {
+        dense = new BitSetChunkStore(worldUid, cx, cz, worldHeight);
+
+        for (int i = 0; i < size; i++) {
+            int block = blocks[i];
+            dense.setTrue(block & 15, block >>> 8, (block >>> 4) & 15);
+        }
+
+        blocks = null;
+        size = 0;
+    }
+
+    /**
+     * Pack a block into an int ordered by Y, Z, X.
+     */
+    private static int pack(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(MAGIC_NUMBER);
+        out.writeInt(CURRENT_VERSION);
+
+        out.writeLong(worldUid.getLeastSignificantBits());
+        out.writeLong(worldUid.getMostSignificantBits());
+        out.writeInt(cx);
+        out.writeInt(cz);
+        out.writeInt(worldHeight);
+        out.writeBoolean(dense != null);
+
+        if (dense != null) {
+            out.writeObject(dense);
+        }
+        else {
+            out.writeInt(size);
+
+            for (int i = 0; i < size; i++) {
+                out.writeInt(blocks[i]);
+            }
+        }
+
+        dirty = false;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int magic = in.readInt();
+        int fileVersionNumber = in.readInt();
+
+        if (magic != MAGIC_NUMBER || fileVersionNumber > CURRENT_VERSION) {
+            throw new IOException("Unknown chunk store format " + fileVersionNumber);
+        }
+
+        long lsb = in.readLong();
+        long msb = in.readLong();
+        worldUid = new UUID(msb, lsb);
+        cx = in.readInt();
+        cz = in.readInt();
+        worldHeight = in.readInt();
+
+        if (in.readBoolean()) {
+            dense = (BitSetChunkStore) in.readObject();
+            return;
+        }
+
+        size = in.readInt();
+
+        if (size < 0 || size > MAX_SPARSE_SIZE) {
+            throw new IOException("Bad sparse chunk store size " + size);
+        }
+
+        blocks = new int[Math.max(size, INITIAL_CAPACITY)];
+
+        for (int i = 0; i < size; i++) {
+            blocks[i] = in.readInt();
+        }
+
+        Arrays.sort(blocks, 0, size);
+    }
+}
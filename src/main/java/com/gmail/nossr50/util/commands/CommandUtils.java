@@ -116,6 +116,19 @@ public final class CommandUtils {
         return true;
     }
 
+    /**
+     * Check if the profile of an online player is still being loaded, in
+     * which case changing it would be lost once it is.
+     */
+    public static boolean loadingProfile(CommandSender sender, PlayerProfile profile) {
+        if (profile.isLoaded()) {
+            return false;
+        }
+
+        sender.sendMessage(LocaleLoader.getString("Commands.NotLoaded"));
+        return true;
+    }
+
     public static boolean isInvalidInteger(CommandSender sender, String value) {
         if (StringUtils.isInt(value)) {
             return false;
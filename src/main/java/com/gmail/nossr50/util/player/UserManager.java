@@ -1,18 +1,29 @@
 package com.gmail.nossr50.util.player;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.datatypes.player.McMMOPlayer;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
 
 public final class UserManager {
-    private final static Map<String, McMMOPlayer> players = new HashMap<String, McMMOPlayer>();
+    // Concurrent so that logins can check it off the main thread
+    private final static Map<String, McMMOPlayer> players = new ConcurrentHashMap<String, McMMOPlayer>();
+
+    // Profiles loaded ahead of a login, keyed by lowercase player name
+    private final static ConcurrentMap<String, WarmedProfile> warmedProfiles = new ConcurrentHashMap<String, WarmedProfile>();
+    // Warmed profiles older than this are considered stale and loaded again
+    private final static long WARMUP_EXPIRY = 30000L;
 
     private UserManager() {}
 
@@ -37,6 +48,83 @@ public final class UserManager {
         return mcMMOPlayer;
     }
 
+    /**
+     * Load the profile of a player who is about to join, so that it doesn't
+     * have to be loaded once they are in. Safe to call from any thread.
+     *
+     * @param playerName The name of the player logging in
+     */
+    public static void warmupProfile(String playerName) {
+        long now = System.currentTimeMillis();
+
+        // Drop the profiles of players who never made it in
+        for (Iterator<WarmedProfile> iterator = warmedProfiles.values().iterator(); iterator.hasNext();) {
+            if (now - iterator.next().loadedAt > WARMUP_EXPIRY) {
+                iterator.remove();
+            }
+        }
+
+        // Still online from an earlier session, which may have changes that aren't saved yet
+        if (players.containsKey(playerName)) {
+            return;
+        }
+
+        mcMMO.getOfflineProfileBuffer().flush(playerName);
+
+        // The database is behind on this player, the loading task will use the queued save instead
+        if (mcMMO.getProfileSaveQueue().getUnsaved(playerName) != null) {
+            return;
+        }
+
+        // Held while loading, any save of the player in the meantime removes it
+        String key = playerName.toLowerCase();
+        WarmedProfile loading = new WarmedProfile(null, now);
+        warmedProfiles.put(key, loading);
+
+        PlayerProfile profile = mcMMO.getDatabaseManager().loadPlayerProfile(playerName, false);
+
+        if (!profile.isLoaded()) {
+            warmedProfiles.remove(key, loading);
+            return;
+        }
+
+        warmedProfiles.replace(key, loading, new WarmedProfile(profile, now));
+    }
+
+    /**
+     * Throw away the warmed profile of a player, because a newer one was
+     * queued to be saved or they were removed. Safe to call from any thread.
+     *
+     * @param playerName The name of the player
+     */
+    public static void discardWarmedProfile(String playerName) {
+        warmedProfiles.remove(playerName.toLowerCase());
+    }
+
+    /**
+     * Throw away every warmed profile. Safe to call from any thread.
+     */
+    public static void discardWarmedProfiles() {
+        warmedProfiles.clear();
+    }
+
+    /**
+     * Take the profile loaded by {@link #warmupProfile(String)}, if it is
+     * still fresh. Safe to call from any thread.
+     *
+     * @param playerName The name of the player
+     * @return the warmed profile, or null if there is none
+     */
+    public static PlayerProfile claimWarmedProfile(String playerName) {
+        WarmedProfile warmed = warmedProfiles.remove(playerName.toLowerCase());
+
+        if (warmed == null || warmed.profile == null || System.currentTimeMillis() - warmed.loadedAt > WARMUP_EXPIRY) {
+            return null;
+        }
+
+        return warmed.profile;
+    }
+
     /**
      * Remove a user.
      *
@@ -57,8 +145,22 @@ public final class UserManager {
      * Save all users.
      */
     public static void saveAll() {
+        List<PlayerProfile> profiles = new ArrayList<PlayerProfile>(players.size());
+
         for (McMMOPlayer mcMMOPlayer : players.values()) {
-            mcMMOPlayer.getProfile().save();
+            profiles.add(mcMMOPlayer.getProfile());
+        }
+
+        PlayerProfile.save(profiles);
+    }
+
+    private static class WarmedProfile {
+        private final PlayerProfile profile;
+        private final long loadedAt;
+
+        private WarmedProfile(PlayerProfile profile, long loadedAt) {
+            this.profile = profile;
+            this.loadedAt = loadedAt;
         }
     }
 
@@ -0,0 +1,43 @@
+package com.gmail.nossr50.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlatfileRecordTest {
+    String lines[] = { "nossr50:10::7:", "player:1:2:3::::", "a::b", "name:-5:+6:::" };
+
+    @Test
+    public void fieldsMatchSplitTest() {
+        for (String line : lines) {
+            String[] fields = line.split(":");
+            FlatfileRecord record = FlatfileRecord.parse(line);
+
+            assertEquals(fields.length, record.getFieldCount());
+
+            for (int i = 0; i < fields.length; i++) {
+                assertEquals(fields[i], record.getString(i));
+            }
+        }
+    }
+
+    @Test
+    public void parseNumberTest() {
+        FlatfileRecord record = FlatfileRecord.parse("name:-5:+6:2147483647:1381622400000:");
+
+        assertEquals(-5, record.getInt(1));
+        assertEquals(6, record.getInt(2));
+        assertEquals(Integer.MAX_VALUE, record.getInt(3));
+        assertEquals(1381622400000L, record.getLong(4));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void emptyNumberTest() {
+        FlatfileRecord.parse("name::5:").getInt(1);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void overflowTest() {
+        FlatfileRecord.parse("name:2147483648:").getInt(1);
+    }
+}
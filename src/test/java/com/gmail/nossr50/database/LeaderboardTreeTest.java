@@ -0,0 +1,82 @@
+package com.gmail.nossr50.database;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.nossr50.datatypes.database.PlayerStat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LeaderboardTreeTest {
+    LeaderboardTree tree;
+
+    @Before
+    public void populateTree() {
+        tree = new LeaderboardTree();
+
+        for (int i = 0; i < 100; i++) {
+            tree.add("Player" + i, i % 10);
+        }
+    }
+
+    @Test
+    public void orderTest() {
+        List<PlayerStat> stats = tree.getRange(0, tree.size());
+
+        assertEquals(100, stats.size());
+
+        for (int i = 1; i < stats.size(); i++) {
+            PlayerStat previous = stats.get(i - 1);
+            PlayerStat current = stats.get(i);
+
+            if (previous.statVal == current.statVal) {
+                assertEquals(-1, Integer.signum(previous.name.compareTo(current.name)));
+            }
+            else {
+                assertEquals(true, previous.statVal > current.statVal);
+            }
+        }
+    }
+
+    @Test
+    public void rangeTest() {
+        List<PlayerStat> all = tree.getRange(0, tree.size());
+
+        for (int from = 0; from < 110; from += 7) {
+            List<PlayerStat> page = tree.getRange(from, 10);
+
+            assertEquals(Math.max(0, Math.min(10, 100 - from)), page.size());
+
+            for (int i = 0; i < page.size(); i++) {
+                assertEquals(all.get(from + i).name, page.get(i).name);
+            }
+        }
+    }
+
+    @Test
+    public void updateTest() {
+        tree.remove("Player5", 5);
+        tree.add("Player5", 100);
+
+        assertEquals(100, tree.size());
+        assertEquals("Player5", tree.getRange(0, 1).get(0).name);
+        assertEquals(Integer.valueOf(1), tree.getRank("player5", 100));
+
+        tree.remove("Player5", 100);
+
+        assertEquals(99, tree.size());
+        assertNull(tree.getRank("Player5", 100));
+    }
+
+    @Test
+    public void rankTest() {
+        List<PlayerStat> all = tree.getRange(0, tree.size());
+
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(Integer.valueOf(i + 1), tree.getRank(all.get(i).name, all.get(i).statVal));
+        }
+    }
+}
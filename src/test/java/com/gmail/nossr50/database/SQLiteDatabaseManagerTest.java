@@ -0,0 +1,209 @@
+package com.gmail.nossr50.database;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.config.ConfigLoader;
+import com.gmail.nossr50.datatypes.MobHealthbarType;
+import com.gmail.nossr50.datatypes.database.PlayerStat;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.datatypes.player.ProfileSnapshot;
+import com.gmail.nossr50.datatypes.skills.AbilityType;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SQLiteDatabaseManagerTest {
+    File directory;
+    SQLDatabaseManager database;
+
+    @BeforeClass
+    public static void loadDefaultConfig() throws Exception {
+        // There is no plugin to load config.yml, so use an empty one where every setting has its default
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+
+        Object unsafe = theUnsafe.get(null);
+        Config config = (Config) unsafeClass.getMethod("allocateInstance", Class.class).invoke(unsafe, Config.class);
+
+        setField(ConfigLoader.class, config, "config", new YamlConfiguration());
+        setField(Config.class, null, "instance", config);
+    }
+
+    @Before
+    public void createDatabase() throws Exception {
+        directory = File.createTempFile("mcmmo", "");
+        directory.delete();
+        directory.mkdir();
+
+        // Puts mcmmo.db in the new directory, with no mcmmo.users to import
+        setField(mcMMO.class, null, "flatFileDirectory", directory.getPath() + File.separator);
+        setField(mcMMO.class, null, "usersFile", new File(directory, "mcmmo.users").getPath());
+
+        database = new SQLDatabaseManager(SQLDialect.SQLITE);
+    }
+
+    @After
+    public void deleteDatabase() {
+        database.close();
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void saveLoadTest() {
+        Map<SkillType, Integer> skills = new HashMap<SkillType, Integer>();
+        Map<SkillType, Float> skillsXp = new HashMap<SkillType, Float>();
+        Map<AbilityType, Integer> skillsDATS = new HashMap<AbilityType, Integer>();
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skills.put(skill, skill.ordinal() * 7 + 1);
+            skillsXp.put(skill, (float) skill.ordinal() * 11);
+        }
+
+        skillsDATS.put(AbilityType.SUPER_BREAKER, 1234);
+        skillsDATS.put(AbilityType.BLAST_MINING, 5678);
+
+        List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>();
+        batch.add(new PlayerProfile("Alice", skills, skillsXp, skillsDATS, MobHealthbarType.BAR).getSnapshot());
+
+        assertTrue(database.saveUsers(batch));
+
+        PlayerProfile profile = database.loadPlayerProfile("alice", false);
+
+        assertTrue(profile.isLoaded());
+        assertEquals(MobHealthbarType.BAR, profile.getMobHealthbarType());
+        assertEquals(1234, profile.getSkillDATS(AbilityType.SUPER_BREAKER));
+        assertEquals(5678, profile.getSkillDATS(AbilityType.BLAST_MINING));
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            assertEquals(skill.ordinal() * 7 + 1, profile.getSkillLevel(skill));
+            assertEquals(skill.ordinal() * 11, profile.getSkillXpLevel(skill));
+        }
+
+        assertFalse(database.loadPlayerProfile("Bob", false).isLoaded());
+    }
+
+    @Test
+    public void sameNameTest() {
+        List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>();
+        batch.add(createProfile("Bob", 10).getSnapshot());
+        batch.add(createProfile("BOB", 20).getSnapshot());
+
+        // Names compare without case, so both are the same user and the latest one is kept
+        assertTrue(database.saveUsers(batch));
+        assertEquals(1, database.getStoredUsers().size());
+        assertEquals(20, database.loadPlayerProfile("bob", false).getSkillLevel(SkillType.MINING));
+    }
+
+    @Test
+    public void rankTest() {
+        List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>();
+
+        for (int i = 0; i < 10; i++) {
+            batch.add(createProfile("Player" + i, i * 10).getSnapshot());
+        }
+
+        // Same level as Player5, added after them so ranked ahead of them
+        batch.add(createProfile("Player55", 50).getSnapshot());
+
+        assertTrue(database.saveUsers(batch));
+
+        Map<String, Integer> ranks = database.readRank("Player9");
+        assertEquals(1, (int) ranks.get("MINING"));
+        assertEquals(1, (int) ranks.get("ALL"));
+        assertNull(ranks.get("WOODCUTTING"));
+
+        assertEquals(5, (int) database.readRank("Player55").get("MINING"));
+        assertEquals(6, (int) database.readRank("Player5").get("ALL"));
+        assertEquals(10, (int) database.readRank("Player1").get("MINING"));
+
+        // Players without levels aren't ranked
+        assertTrue(database.readRank("Player0").isEmpty());
+    }
+
+    @Test
+    public void leaderboardTest() {
+        List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>();
+
+        for (int i = 0; i < 10; i++) {
+            batch.add(createProfile("Player" + i, i * 10).getSnapshot());
+        }
+
+        assertTrue(database.saveUsers(batch));
+
+        List<PlayerStat> first = database.readLeaderboard("ALL", 1, 5);
+        List<PlayerStat> second = database.readLeaderboard("ALL", 2, 5);
+
+        assertEquals(5, first.size());
+        assertEquals("Player9", first.get(0).name);
+        assertEquals(90, first.get(0).statVal);
+        assertEquals("Player5", first.get(4).name);
+
+        // Player0 has no levels, so isn't on the leader board
+        assertEquals(4, second.size());
+        assertEquals("Player4", second.get(0).name);
+        assertEquals("Player1", second.get(3).name);
+
+        assertEquals(first.size(), database.readLeaderboard("mining", 1, 5).size());
+    }
+
+    @Test
+    public void purgeTest() {
+        List<ProfileSnapshot> batch = new ArrayList<ProfileSnapshot>();
+
+        // More than fit in a single delete, so it takes several chunks
+        for (int i = 0; i < 1200; i++) {
+            batch.add(createProfile("Powerless" + i, 0).getSnapshot());
+        }
+
+        for (int i = 1; i <= 3; i++) {
+            batch.add(createProfile("Player" + i, i).getSnapshot());
+        }
+
+        assertTrue(database.saveUsers(batch));
+        assertEquals(1203, database.getStoredUsers().size());
+
+        List<String> purged = database.removePowerlessUsers();
+
+        assertEquals(1200, purged.size());
+        assertEquals(3, database.getStoredUsers().size());
+        assertFalse(database.loadPlayerProfile("Powerless0", false).isLoaded());
+        assertFalse(database.loadPlayerProfile("Powerless1199", false).isLoaded());
+        assertTrue(database.loadPlayerProfile("Player2", false).isLoaded());
+        assertEquals(3, database.readLeaderboard("ALL", 1, 10).size());
+    }
+
+    private PlayerProfile createProfile(String playerName, int miningLevel) {
+        Map<SkillType, Integer> skills = new HashMap<SkillType, Integer>();
+        skills.put(SkillType.MINING, miningLevel);
+
+        return new PlayerProfile(playerName, skills, new HashMap<SkillType, Float>(), new HashMap<AbilityType, Integer>(), MobHealthbarType.HEARTS);
+    }
+
+    private static void setField(Class<?> clazz, Object object, String name, Object value) throws Exception {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+}
@@ -0,0 +1,82 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitSetChunkStoreTest {
+    private static final UUID WORLD = new UUID(1L, 2L);
+
+    @Test
+    public void setAndClearTest() {
+        BitSetChunkStore store = new BitSetChunkStore(WORLD, 3, -4, 256);
+
+        assertTrue(store.isEmpty());
+        assertFalse(store.isDirty());
+
+        store.setTrue(15, 255, 15);
+        store.setTrue(0, 0, 0);
+        store.setTrue(7, 64, 9);
+
+        assertFalse(store.isEmpty());
+        assertTrue(store.isDirty());
+        assertTrue(store.isTrue(15, 255, 15));
+        assertTrue(store.isTrue(0, 0, 0));
+        assertTrue(store.isTrue(7, 64, 9));
+        assertFalse(store.isTrue(9, 64, 7));
+        assertFalse(store.isTrue(7, 65, 9));
+
+        store.setFalse(15, 255, 15);
+        store.setFalse(0, 0, 0);
+        assertFalse(store.isTrue(15, 255, 15));
+        assertFalse(store.isEmpty());
+
+        store.setFalse(7, 64, 9);
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void outOfWorldTest() {
+        BitSetChunkStore store = new BitSetChunkStore(WORLD, 0, 0, 128);
+
+        store.setTrue(1, 128, 1);
+        store.setTrue(1, -1, 1);
+
+        assertFalse(store.isTrue(1, 128, 1));
+        assertFalse(store.isTrue(1, -1, 1));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void serializationTest() throws Exception {
+        BitSetChunkStore store = new BitSetChunkStore(WORLD, 3, -4, 256);
+        store.setTrue(1, 2, 3);
+        store.setTrue(14, 200, 5);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(store);
+        out.close();
+
+        assertFalse(store.isDirty());
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        BitSetChunkStore read = (BitSetChunkStore) in.readObject();
+        in.close();
+
+        assertEquals(3, read.getChunkX());
+        assertEquals(-4, read.getChunkZ());
+        assertTrue(read.isTrue(1, 2, 3));
+        assertTrue(read.isTrue(14, 200, 5));
+        assertFalse(read.isTrue(3, 2, 1));
+        assertFalse(read.isDirty());
+    }
+}
@@ -0,0 +1,136 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkStoreCodecTest {
+    private static final UUID WORLD = new UUID(1L, 2L);
+
+    @Test
+    public void sparseTest() throws Exception {
+        SparseChunkStore store = new SparseChunkStore(WORLD, 3, -4, 256);
+        store.setTrue(1, 2, 3);
+        store.setTrue(14, 200, 5);
+        store.setTrue(0, 255, 0);
+
+        SparseChunkStore read = (SparseChunkStore) ChunkStoreCodec.read(new ByteArrayInputStream(write(store)));
+
+        assertFalse(read.isDense());
+        assertEquals(WORLD, read.getWorldUid());
+        assertEquals(3, read.getChunkX());
+        assertEquals(-4, read.getChunkZ());
+        assertEquals(256, read.getWorldHeight());
+        assertTrue(read.isTrue(1, 2, 3));
+        assertTrue(read.isTrue(14, 200, 5));
+        assertTrue(read.isTrue(0, 255, 0));
+        assertFalse(read.isTrue(3, 2, 1));
+    }
+
+    @Test
+    public void denseTest() throws Exception {
+        SparseChunkStore store = new SparseChunkStore(WORLD, 0, 0, 256);
+
+        for (int y = 0; y < 256; y += 3) {
+            for (int z = 0; z < 16; z += 2) {
+                store.setTrue(y & 15, y, z);
+            }
+        }
+
+        assertTrue(store.isDense());
+
+        SparseChunkStore read = (SparseChunkStore) ChunkStoreCodec.read(new ByteArrayInputStream(write(store)));
+
+        assertTrue(read.isDense());
+
+        for (int y = 0; y < 256; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    assertEquals(store.isTrue(x, y, z), read.isTrue(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bitSetTest() throws Exception {
+        BitSetChunkStore store = new BitSetChunkStore(WORLD, 5, 6, 128);
+        store.setTrue(4, 100, 7);
+
+        ChunkStore read = ChunkStoreCodec.read(new ByteArrayInputStream(write(store)));
+
+        assertEquals(5, read.getChunkX());
+        assertTrue(read.isTrue(4, 100, 7));
+        assertFalse(read.isTrue(4, 101, 7));
+    }
+
+    @Test
+    public void legacyTest() throws Exception {
+        SparseChunkStore store = new SparseChunkStore(WORLD, 3, -4, 256);
+        store.setTrue(1, 2, 3);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(store);
+        out.close();
+
+        ChunkStore read = ChunkStoreCodec.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertTrue(read.isTrue(1, 2, 3));
+        assertEquals(-4, read.getChunkZ());
+    }
+
+    @Test
+    public void checksumTest() throws Exception {
+        SparseChunkStore store = new SparseChunkStore(WORLD, 3, -4, 256);
+        store.setTrue(1, 2, 3);
+
+        byte[] bytes = write(store);
+        bytes[bytes.length - 6] ^= 1;
+
+        try {
+            ChunkStoreCodec.read(new ByteArrayInputStream(bytes));
+            assertTrue(false);
+        }
+        catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void varIntTest() throws Exception {
+        int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        for (int value : values) {
+            ChunkStoreCodec.writeVarInt(out, value);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        for (int value : values) {
+            assertEquals(value, ChunkStoreCodec.readVarInt(in));
+        }
+    }
+
+    private byte[] write(ChunkStore store) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ChunkStoreCodec.write(out, store);
+        out.close();
+
+        return bytes.toByteArray();
+    }
+}
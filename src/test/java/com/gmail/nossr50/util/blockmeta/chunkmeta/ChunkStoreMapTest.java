@@ -0,0 +1,69 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkStoreMapTest {
+    private static final UUID WORLD = new UUID(1L, 2L);
+
+    @Test
+    public void keyTest() {
+        int[] coordinates = { 0, 1, -1, 31, -32, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+        for (int cx : coordinates) {
+            for (int cz : coordinates) {
+                long key = ChunkStoreMap.key(cx, cz);
+
+                assertEquals(cx, ChunkStoreMap.getChunkX(key));
+                assertEquals(cz, ChunkStoreMap.getChunkZ(key));
+            }
+        }
+    }
+
+    @Test
+    public void matchesHashMapTest() {
+        Random random = new Random(42);
+        ChunkStoreMap map = new ChunkStoreMap();
+        Map<Long, ChunkStore> expected = new HashMap<Long, ChunkStore>();
+
+        for (int i = 0; i < 20000; i++) {
+            int cx = random.nextInt(40) - 20;
+            int cz = random.nextInt(40) - 20;
+            long key = ChunkStoreMap.key(cx, cz);
+
+            if (random.nextInt(3) == 0) {
+                assertTrue(expected.remove(key) == map.remove(key));
+            }
+            else {
+                ChunkStore chunkStore = new SparseChunkStore(WORLD, cx, cz, 256);
+                assertTrue(expected.put(key, chunkStore) == map.put(key, chunkStore));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (int cx = -20; cx < 20; cx++) {
+            for (int cz = -20; cz < 20; cz++) {
+                long key = ChunkStoreMap.key(cx, cz);
+                assertTrue(expected.get(key) == map.get(key));
+            }
+        }
+
+        long[] keys = map.keys();
+        assertEquals(expected.size(), keys.length);
+
+        for (long key : keys) {
+            assertTrue(expected.containsKey(key));
+            map.remove(key);
+        }
+
+        assertTrue(map.isEmpty());
+    }
+}
@@ -0,0 +1,124 @@
+package com.gmail.nossr50.util.blockmeta.chunkmeta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SparseChunkStoreTest {
+    private static final UUID WORLD = new UUID(1L, 2L);
+
+    @Test
+    public void setAndClearTest() {
+        SparseChunkStore store = new SparseChunkStore(WORLD, 0, 0, 256);
+
+        assertTrue(store.isEmpty());
+
+        store.setTrue(15, 255, 15);
+        store.setTrue(0, 0, 0);
+        store.setTrue(7, 64, 9);
+        store.setTrue(7, 64, 9);
+
+        assertFalse(store.isDense());
+        assertTrue(store.isTrue(15, 255, 15));
+        assertTrue(store.isTrue(0, 0, 0));
+        assertTrue(store.isTrue(7, 64, 9));
+        assertFalse(store.isTrue(9, 64, 7));
+
+        store.setFalse(0, 0, 0);
+        store.setFalse(15, 255, 15);
+        assertFalse(store.isTrue(0, 0, 0));
+        assertFalse(store.isEmpty());
+
+        store.setFalse(7, 64, 9);
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void promoteTest() {
+        SparseChunkStore store = new SparseChunkStore(WORLD, 0, 0, 256);
+
+        for (int y = 0; y < 4; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    store.setTrue(x, y * 10, z);
+                }
+            }
+        }
+
+        assertTrue(store.isDense());
+
+        for (int y = 0; y < 4; y++) {
+            assertTrue(store.isTrue(5, y * 10, 6));
+            assertFalse(store.isTrue(5, y * 10 + 1, 6));
+        }
+
+        for (int y = 0; y < 4; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    store.setFalse(x, y * 10, z);
+                }
+            }
+        }
+
+        assertFalse(store.isDense());
+        assertTrue(store.isEmpty());
+
+        store.setTrue(1, 2, 3);
+        assertTrue(store.isTrue(1, 2, 3));
+    }
+
+    @Test
+    public void serializationTest() throws Exception {
+        SparseChunkStore sparse = new SparseChunkStore(WORLD, 3, -4, 256);
+        sparse.setTrue(1, 2, 3);
+        sparse.setTrue(14, 200, 5);
+
+        SparseChunkStore read = roundTrip(sparse);
+
+        assertFalse(read.isDense());
+        assertEquals(3, read.getChunkX());
+        assertEquals(-4, read.getChunkZ());
+        assertTrue(read.isTrue(1, 2, 3));
+        assertTrue(read.isTrue(14, 200, 5));
+        assertFalse(read.isTrue(3, 2, 1));
+
+        SparseChunkStore dense = new SparseChunkStore(WORLD, 3, -4, 256);
+
+        for (int y = 0; y < 2; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    dense.setTrue(x, y, z);
+                }
+            }
+        }
+
+        read = roundTrip(dense);
+
+        assertTrue(read.isDense());
+        assertTrue(read.isTrue(15, 1, 15));
+        assertFalse(read.isTrue(15, 2, 15));
+    }
+
+    private SparseChunkStore roundTrip(SparseChunkStore store) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(store);
+        out.close();
+
+        assertFalse(store.isDirty());
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SparseChunkStore read = (SparseChunkStore) in.readObject();
+        in.close();
+
+        return read;
+    }
+}